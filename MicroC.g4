@@ -24,10 +24,7 @@ import compiler.Scope.*;
      }
 
      private void addParams(List<Scope.Type> types, List<String> names) {
-          /* Add parameters in reverse order so everything matches correctly */
-          for (int i = types.size() - 1; i >= 0; --i) {
-               st.addArgument(types.get(i), names.get(i));
-          }
+          st.addArguments(types, names);
      }
 }
 
@@ -47,15 +44,15 @@ id : IDENTIFIER ;
 		  
 var_decl : type id ';' {st.addVariable($type.t, $id.text);};
 
-str_decl : 'string' id '=' val= STR_LITERAL ';' {st.addVariable(new Scope.Type(Scope.InnerType.STRING), $id.text, $val.text);};
+str_decl : 'string' id '=' val= STR_LITERAL ';' {st.addVariable(Scope.Type.STRING, $id.text, $val.text);};
 
 type returns [Scope.Type t] : base_type {$t = $base_type.t;}
           | t1=type '*' {$t = Scope.Type.pointerToType($t1.t);};
 
-base_type returns [Scope.Type t]: 'int' {$t = new Scope.Type(Scope.InnerType.INT);}| 'float' {$t = new Scope.Type(Scope.InnerType.FLOAT);};
+base_type returns [Scope.Type t]: 'int' {$t = Scope.Type.INT;}| 'float' {$t = Scope.Type.FLOAT;};
 
 func_type returns [Scope.Type t]: type {$t = $type.t;}
-          | 'void' {$t = new Scope.Type(Scope.InnerType.VOID);};
+          | 'void' {$t = Scope.Type.VOID;};
 
 /* Functions */
 
@@ -122,7 +119,7 @@ base_stmt returns [StatementNode node] : assign_stmt {$node = $assign_stmt.node;
 		| return_stmt {$node = $return_stmt.node;}
           | call_expr {$node = $call_expr.node;};
 		 
-read_stmt returns [ReadNode node] : 'read' '(' id ')' {$node = new ReadNode(new VarNode($id.text));} ;
+read_stmt returns [ReadNode node] : 'read' '(' id ')' {$node = new ReadNode(new VarNode($id.text, st));} ;
 
 print_stmt returns [WriteNode node] : 'print' '(' expr ')' {$node = new WriteNode($expr.node);};
 
@@ -139,7 +136,7 @@ if_stmt returns [IfStatementNode node]: 'if' '(' cond ')' '{' statements '}' {$n
 
 while_stmt returns [WhileNode node] : 'while' '(' cond ')' '{' statements '}' {$node = new WhileNode($cond.node, $statements.node);};
 
-lval returns [ExpressionNode node] : id {$node = new VarNode($id.text);}
+lval returns [ExpressionNode node] : id {$node = new VarNode($id.text, st);}
         | ptr_expr {$node = $ptr_expr.node;};
 
 primary returns [ExpressionNode node] : lval {$node = $lval.node;}
@@ -170,9 +167,9 @@ array_multi returns [ExpressionNode node] : array_idx_1 '[' array_idx_2 ']' {$no
 array_expr returns [PtrDerefNode node] : array_idx_1  {$node = new PtrDerefNode($array_idx_1.node);} | array_multi {$node = new PtrDerefNode($array_multi.node);};
 		 
 /* Call expressions */
-call_expr returns [AbstractCallNode node] : 'malloc' '(' expr ')' {$node = new MallocNode($expr.node);}
-     | 'free' '(' expr ')' {$node = new FreeNode($expr.node);}
-     | id '(' arg_list ')' {$node = new CallNode($id.text, $arg_list.args);};
+call_expr returns [AbstractCallNode node] : 'malloc' '(' expr ')' {$node = new MallocNode($expr.node, st);}
+     | 'free' '(' expr ')' {$node = new FreeNode($expr.node, st);}
+     | id '(' arg_list ')' {$node = new CallNode($id.text, $arg_list.args, st);};
 
 arg_list returns [List<ExpressionNode> args] : expr args_rest {$args = new LinkedList<ExpressionNode>(); $args.add($expr.node); $args.addAll($args_rest.args);}
          | /* empty */ {$args = new LinkedList<ExpressionNode>();};
@@ -116,10 +116,7 @@ public class MicroCLexer extends Lexer {
 	     }
 
 	     private void addParams(List<Scope.Type> types, List<String> names) {
-	          /* Add parameters in reverse order so everything matches correctly */
-	          for (int i = types.size() - 1; i >= 0; --i) {
-	               st.addArgument(types.get(i), names.get(i));
-	          }
+	          st.addArguments(types, names);
 	     }
 
 
@@ -133,10 +133,7 @@ public class MicroCParser extends Parser {
 	     }
 
 	     private void addParams(List<Scope.Type> types, List<String> names) {
-	          /* Add parameters in reverse order so everything matches correctly */
-	          for (int i = types.size() - 1; i >= 0; --i) {
-	               st.addArgument(types.get(i), names.get(i));
-	          }
+	          st.addArguments(types, names);
 	     }
 
 	public MicroCParser(TokenStream input) {
@@ -459,7 +456,7 @@ public class MicroCParser extends Parser {
 			((Str_declContext)_localctx).val = match(STR_LITERAL);
 			setState(121);
 			match(T__0);
-			st.addVariable(new Scope.Type(Scope.InnerType.STRING), (((Str_declContext)_localctx).id!=null?_input.getText(((Str_declContext)_localctx).id.start,((Str_declContext)_localctx).id.stop):null), (((Str_declContext)_localctx).val!=null?((Str_declContext)_localctx).val.getText():null));
+			st.addVariable(Scope.Type.STRING, (((Str_declContext)_localctx).id!=null?_input.getText(((Str_declContext)_localctx).id.start,((Str_declContext)_localctx).id.stop):null), (((Str_declContext)_localctx).val!=null?((Str_declContext)_localctx).val.getText():null));
 			}
 		}
 		catch (RecognitionException re) {
@@ -584,7 +581,7 @@ public class MicroCParser extends Parser {
 				{
 				setState(136);
 				match(T__4);
-				((Base_typeContext)_localctx).t =  new Scope.Type(Scope.InnerType.INT);
+				((Base_typeContext)_localctx).t =  Scope.Type.INT;
 				}
 				break;
 			case T__5:
@@ -592,7 +589,7 @@ public class MicroCParser extends Parser {
 				{
 				setState(138);
 				match(T__5);
-				((Base_typeContext)_localctx).t =  new Scope.Type(Scope.InnerType.FLOAT);
+				((Base_typeContext)_localctx).t =  Scope.Type.FLOAT;
 				}
 				break;
 			default:
@@ -651,7 +648,7 @@ public class MicroCParser extends Parser {
 				{
 				setState(145);
 				match(T__6);
-				((Func_typeContext)_localctx).t =  new Scope.Type(Scope.InnerType.VOID);
+				((Func_typeContext)_localctx).t =  Scope.Type.VOID;
 				}
 				break;
 			default:
@@ -1354,7 +1351,7 @@ public class MicroCParser extends Parser {
 			((Read_stmtContext)_localctx).id = id();
 			setState(234);
 			match(T__8);
-			((Read_stmtContext)_localctx).node =  new ReadNode(new VarNode((((Read_stmtContext)_localctx).id!=null?_input.getText(((Read_stmtContext)_localctx).id.start,((Read_stmtContext)_localctx).id.stop):null)));
+			((Read_stmtContext)_localctx).node =  new ReadNode(new VarNode((((Read_stmtContext)_localctx).id!=null?_input.getText(((Read_stmtContext)_localctx).id.start,((Read_stmtContext)_localctx).id.stop):null), st));
 			}
 		}
 		catch (RecognitionException re) {
@@ -1775,7 +1772,7 @@ public class MicroCParser extends Parser {
 				{
 				setState(297);
 				((LvalContext)_localctx).id = id();
-				((LvalContext)_localctx).node =  new VarNode((((LvalContext)_localctx).id!=null?_input.getText(((LvalContext)_localctx).id.start,((LvalContext)_localctx).id.stop):null));
+				((LvalContext)_localctx).node =  new VarNode((((LvalContext)_localctx).id!=null?_input.getText(((LvalContext)_localctx).id.start,((LvalContext)_localctx).id.stop):null), st);
 				}
 				break;
 			case T__3:
@@ -2401,7 +2398,7 @@ public class MicroCParser extends Parser {
 				((Call_exprContext)_localctx).expr = expr(0);
 				setState(384);
 				match(T__8);
-				((Call_exprContext)_localctx).node =  new MallocNode(((Call_exprContext)_localctx).expr.node);
+				((Call_exprContext)_localctx).node =  new MallocNode(((Call_exprContext)_localctx).expr.node, st);
 				}
 				break;
 			case T__23:
@@ -2415,7 +2412,7 @@ public class MicroCParser extends Parser {
 				((Call_exprContext)_localctx).expr = expr(0);
 				setState(390);
 				match(T__8);
-				((Call_exprContext)_localctx).node =  new FreeNode(((Call_exprContext)_localctx).expr.node);
+				((Call_exprContext)_localctx).node =  new FreeNode(((Call_exprContext)_localctx).expr.node, st);
 				}
 				break;
 			case IDENTIFIER:
@@ -2429,7 +2426,7 @@ public class MicroCParser extends Parser {
 				((Call_exprContext)_localctx).arg_list = arg_list();
 				setState(396);
 				match(T__8);
-				((Call_exprContext)_localctx).node =  new CallNode((((Call_exprContext)_localctx).id!=null?_input.getText(((Call_exprContext)_localctx).id.start,((Call_exprContext)_localctx).id.stop):null), ((Call_exprContext)_localctx).arg_list.args);
+				((Call_exprContext)_localctx).node =  new CallNode((((Call_exprContext)_localctx).id!=null?_input.getText(((Call_exprContext)_localctx).id.start,((Call_exprContext)_localctx).id.stop):null), ((Call_exprContext)_localctx).arg_list.args, st);
 				}
 				break;
 			default:
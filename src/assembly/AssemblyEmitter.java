@@ -0,0 +1,129 @@
+package assembly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import assembly.instructions.Instruction;
+
+/**
+ * Writes assembly straight to a channel.
+ *
+ * Rather than building the whole program as one String (which is what
+ * {@link CodeObject#toString()} does), the emitter walks an {@link InstructionList}
+ * and copies each instruction into a reusable byte buffer, flushing the buffer
+ * to the underlying channel whenever it fills up.
+ */
+public class AssemblyEmitter implements Closeable {
+
+	static final private int bufferSize = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final OutputStream stream; //non-null if we were handed a stream (e.g., System.out)
+	private final ByteBuffer buffer;
+
+	/**
+	 * Emit to a stream. The stream is flushed, but not closed, by {@link #close()}.
+	 */
+	public AssemblyEmitter(OutputStream out) {
+		this(Channels.newChannel(out), out);
+	}
+
+	/**
+	 * Emit to a channel (e.g., a socket). The channel is closed by {@link #close()}.
+	 */
+	public AssemblyEmitter(WritableByteChannel channel) {
+		this(channel, null);
+	}
+
+	private AssemblyEmitter(WritableByteChannel channel, OutputStream stream) {
+		this.channel = channel;
+		this.stream = stream;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Emit to a file, replacing whatever is there.
+	 */
+	public static AssemblyEmitter toFile(String fileName) throws IOException {
+		FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new AssemblyEmitter(fc, null);
+	}
+
+	/**
+	 * Emit the code of a code object, preceded by the same comment header that
+	 * {@link CodeObject#toString()} prints.
+	 */
+	public void emit(CodeObject co) throws IOException {
+		emitLine(";Current temp: " + co.temp);
+		emitLine(";IR Code: ");
+		emit(co.code);
+	}
+
+	public void emit(InstructionList il) throws IOException {
+		for (Instruction i : il) {
+			emit(i);
+		}
+	}
+
+	public void emit(Instruction i) throws IOException {
+		emitLine(i.toString());
+	}
+
+	public void emitLine(String s) throws IOException {
+		write(s);
+		put((byte) '\n');
+	}
+
+	private void write(String s) throws IOException {
+		for (int k = 0; k < s.length(); k++) {
+			char c = s.charAt(k);
+			if (c >= 0x80) {
+				//not plain ASCII (e.g., inside a string literal): encode the rest properly
+				for (byte b : s.substring(k).getBytes(StandardCharsets.UTF_8)) {
+					put(b);
+				}
+				return;
+			}
+			put((byte) c);
+		}
+	}
+
+	private void put(byte b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			drain();
+		}
+		buffer.put(b);
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public void flush() throws IOException {
+		drain();
+		if (stream != null) {
+			stream.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		if (stream == null) {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import assembly.instructions.Halt;
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionBranch;
+import assembly.instructions.J;
+import assembly.instructions.Ret;
+
+/**
+ * A straight-line run of instructions in a {@link ControlFlowGraph}.
+ *
+ * Control only enters a block at the top and only leaves it at the bottom. The
+ * label of a block is kept in the block, not in its instruction list, so passes
+ * can rewrite the instructions without worrying about labels. The last instruction
+ * may be a terminator (J, a branch, RET or HALT); where control goes if it is not
+ * a J, RET or HALT is the block's fall-through successor.
+ *
+ * The edges are owned by the graph: change them through the graph, or call
+ * {@link ControlFlowGraph#computeEdges()} after rewriting a terminator.
+ */
+public class BasicBlock {
+
+	final int id;
+	String label; //null if nothing jumps here
+	final List<Instruction> insts;
+	BasicBlock fallThrough; //null if the block always jumps away
+	final List<BasicBlock> succs;
+	final List<BasicBlock> preds;
+
+	BasicBlock(int id, String label) {
+		this.id = id;
+		this.label = label;
+		this.insts = new ArrayList<Instruction>();
+		this.fallThrough = null;
+		this.succs = new ArrayList<BasicBlock>();
+		this.preds = new ArrayList<BasicBlock>();
+	}
+
+	/**
+	 * @return a number that is unique within the graph; blocks made by splitting
+	 *         get higher numbers than the blocks they came from
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the instructions of the block, which passes are free to change
+	 */
+	public List<Instruction> getInstructions() {
+		return insts;
+	}
+
+	public List<BasicBlock> getSuccessors() {
+		return succs;
+	}
+
+	public List<BasicBlock> getPredecessors() {
+		return preds;
+	}
+
+	public BasicBlock getFallThrough() {
+		return fallThrough;
+	}
+
+	/**
+	 * @return the jump or branch (or RET or HALT) that ends the block, or null if
+	 *         the block just falls through
+	 */
+	public Instruction getTerminator() {
+		if (insts.isEmpty()) return null;
+		Instruction last = insts.get(insts.size() - 1);
+		return isTerminator(last) ? last : null;
+	}
+
+	/**
+	 * @return true if control never goes on to the next instruction after i
+	 *         (other than by taking a branch). JR is a call: it comes back.
+	 */
+	static boolean isTerminator(Instruction i) {
+		return i instanceof J || i instanceof InstructionBranch || i instanceof Ret || i instanceof Halt;
+	}
+
+	/**
+	 * @return true if i leaves the block unconditionally
+	 */
+	static boolean endsFlow(Instruction i) {
+		return i instanceof J || i instanceof Ret || i instanceof Halt;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("; block ").append(id);
+		if (label != null) sb.append(" (").append(label).append(")");
+		sb.append(" preds:");
+		for (BasicBlock p : preds) sb.append(" ").append(p.id);
+		sb.append(" succs:");
+		for (BasicBlock s : succs) sb.append(" ").append(s.id);
+		sb.append("\n");
+		for (Instruction i : insts) sb.append(i).append("\n");
+		return sb.toString();
+	}
+}
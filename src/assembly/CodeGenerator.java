@@ -1,6 +1,12 @@
 package assembly;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import compiler.Scope.InnerType;
 import compiler.Scope.SymbolTableEntry;
@@ -9,6 +15,16 @@ import ast.visitor.AbstractASTVisitor;
 
 import ast.*;
 import assembly.instructions.*;
+import assembly.opt.DeadCodeElimination;
+import assembly.opt.LoopInvariantCodeMotion;
+import assembly.opt.PromoteLocals;
+import assembly.opt.StackSlotColoring;
+import assembly.opt.StrengthReduction;
+import assembly.opt.ValueNumbering;
+import assembly.ssa.SSAConstruction;
+import assembly.ssa.SSADestruction;
+import compiler.LocalScope;
+import compiler.PassTimer;
 import compiler.Scope;
 
 public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
@@ -17,19 +33,102 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	int floatRegCount;
 	static final public char intTempPrefix = 't';
 	static final public char floatTempPrefix = 'f';
+	static final private int maxCleanupRounds = 4; //of value numbering and dead code elimination
+	static final private int maxInlineCost = 40; //instructions in the body of a function we inline
+	static final private int maxInlineGrowth = 400; //instructions inlined into any one function
+	static final public int maxArgRegs = 8; //of each class: a0-a7 and fa0-fa7
 
 	int loopLabel;
 	int elseLabel;
 	int outLabel;
+	int tailLabel;
 
 	String currFunc;
+	LocalScope currScope;
+
+	int numIntRegs; //size of the physical register files used by the register allocator
+	int numFloatRegs;
+
+	PassTimer timer; //null unless we are timing each function
+	boolean optimize; //run the passes over each function's control-flow graph
+	int numArgRegs; //arguments of each class passed in registers; 0 passes everything on the stack
+
+	Map<String, FunctionNode> inlineCandidates; //functions whose calls get their body instead
+	Map<SymbolTableEntry, Integer> inlinedSlots; //variable of an inlined function -> its slot in this frame
+	int numFrameSlots; //slots for locals in this frame, including those of inlined functions
+	int numInlined; //instructions inlined into this function so far
+	String inlineResult; //while generating an inlined body: where its return value goes
+	String inlineExit; //and where its returns jump to
+
+	int numOutgoingSlots; //size of the outgoing-argument area at the bottom of the frame
+
+	boolean frameAddressTaken; //the body takes the address of a local or argument
+	boolean selfTailCalls; //the body jumps back to its start
+	List<SiblingCall> siblingCalls; //tail calls to other functions
+
+	/**
+	 * A call to another function in tail position. The body puts the arguments in
+	 * registers and jumps to an epilogue of its own, which stores the ones passed
+	 * on the stack over our own arguments, takes our frame down and jumps to the
+	 * callee, which then returns straight to our caller.
+	 */
+	private static class SiblingCall {
+		final String label; //the body jumps here
+		final List<Instruction> stores; //stack arguments, from their registers to their slots
+		final String callee;
+
+		SiblingCall(String label, List<Instruction> stores, String callee) {
+			this.label = label;
+			this.stores = stores;
+			this.callee = callee;
+		}
+	}
 
 	public CodeGenerator() {
+		this(RegisterAllocator.defaultNumIntRegs, RegisterAllocator.defaultNumFloatRegs);
+	}
+
+	public CodeGenerator(int numIntRegs, int numFloatRegs) {
 		loopLabel = 0;
 		elseLabel = 0;
 		outLabel = 0;
 		intRegCount = 0;
 		floatRegCount = 0;
+		this.numIntRegs = numIntRegs;
+		this.numFloatRegs = numFloatRegs;
+		inlineCandidates = new HashMap<String, FunctionNode>();
+		inlinedSlots = new IdentityHashMap<SymbolTableEntry, Integer>();
+		siblingCalls = new ArrayList<SiblingCall>();
+	}
+
+	/**
+	 * Time the code generation of each function
+	 */
+	public void setPassTimer(PassTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Turn the optimizations over each function's control-flow graph on or off
+	 */
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Pass the first <code>numArgRegs</code> int (and pointer) and float arguments
+	 * of every call in registers (a0, a1, ... and fa0, fa1, ...), and return
+	 * values in a0 or fa0. Must match the {@link compiler.SymbolTable} the
+	 * program was parsed with.
+	 *
+	 * @throws IllegalArgumentException if numArgRegs is not between 0 and
+	 *         {@link #maxArgRegs}
+	 */
+	public void setNumArgRegs(int numArgRegs) {
+		if (numArgRegs < 0 || numArgRegs > maxArgRegs) {
+			throw new IllegalArgumentException("Number of argument registers must be 0 to " + maxArgRegs + ": " + numArgRegs);
+		}
+		this.numArgRegs = numArgRegs;
 	}
 
 	public int getIntRegCount() {
@@ -143,157 +242,43 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
  		co.code.addAll(right.code);
 
- 		switch (node.getOp()) {
- 			case ADD:
-
-				Instruction add = null;
-				
- 				if (left.getType().toString() == "INT" && right.getType().toString() == "INT")
- 				{
-					add = new Add(left.temp, right.temp, generateTemp(Scope.InnerType.INT));
-					co.type = right.type;
- 					
- 				}
-				else if (left.getType().toString() == "FLOAT" && right.getType().toString() == "INT" )
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(right);
-					co.code.addAll(temporary.code);
-					add = new FAdd(left.temp, temporary.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
+ 		// the type checker has already worked out the type of the result; if it is
+ 		// a float, convert any int operand first
+ 		boolean isFloat = node.getType() == Scope.Type.FLOAT;
+ 		String leftTemp = left.temp;
+ 		String rightTemp = right.temp;
+ 		if (isFloat && left.getType() != Scope.Type.FLOAT) {
+ 			CodeObject temporary = toFloat(left);
+ 			co.code.addAll(temporary.code);
+ 			leftTemp = temporary.temp;
+ 		}
+ 		if (isFloat && right.getType() != Scope.Type.FLOAT) {
+ 			CodeObject temporary = toFloat(right);
+ 			co.code.addAll(temporary.code);
+ 			rightTemp = temporary.temp;
+ 		}
 
-				else if (left.getType().toString() == "INT" && right.getType().toString() == "FLOAT")
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(left);
-					co.code.addAll(temporary.code);
-					add = new FAdd(temporary.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = right.type;
-				}
-				else
-				{
-					add = new FAdd(left.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-				
+ 		String dest = generateTemp(isFloat ? Scope.InnerType.FLOAT : Scope.InnerType.INT);
 
- 				co.code.add(add);
- 				co.temp = add.getDest();
+ 		Instruction op = null;
+ 		switch (node.getOp()) {
+ 			case ADD:
+ 				op = isFloat ? new FAdd(leftTemp, rightTemp, dest) : new Add(leftTemp, rightTemp, dest);
  				break;
-
  			case SUB:
-
- 				Instruction sub;
-
-				if (left.getType().toString() == "INT" && right.getType().toString() == "INT")
- 				{
-					sub = new Sub(left.temp, right.temp, generateTemp(Scope.InnerType.INT));
-					co.type = right.type;
- 					
- 				}
-				else if (left.getType().toString() == "FLOAT" && right.getType().toString() == "INT" )
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(right);
-					co.code.addAll(temporary.code);
-					sub = new FSub(left.temp, temporary.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-
-				else if (left.getType().toString() == "INT" && right.getType().toString() == "FLOAT")
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(left);
-					co.code.addAll(temporary.code);
-					sub = new FSub(temporary.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = right.type;
-				}
-				else
-				{
-					sub = new FSub(left.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-
- 				co.code.add(sub);
- 				co.temp = sub.getDest();
+ 				op = isFloat ? new FSub(leftTemp, rightTemp, dest) : new Sub(leftTemp, rightTemp, dest);
  				break;
-
  			case MUL:
- 				Instruction mul;
-
-
- 				if (left.getType().toString() == "INT" && right.getType().toString() == "INT")
- 				{
-					mul = new Mul(left.temp, right.temp, generateTemp(Scope.InnerType.INT));
-					co.type = right.type;
- 					
- 				}
-				 else if (left.getType().toString() == "FLOAT" && right.getType().toString() == "INT" )
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(right);
-					co.code.addAll(temporary.code);
-					mul = new FMul(left.temp, temporary.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-
-				else if (left.getType().toString() == "INT" && right.getType().toString() == "FLOAT")
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(left);
-					co.code.addAll(temporary.code);
-					mul = new FMul(temporary.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = right.type;
-				}
-				else
-				{
-					mul = new FMul(left.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-
- 				co.code.add(mul);
- 				co.temp = mul.getDest();
+ 				op = isFloat ? new FMul(leftTemp, rightTemp, dest) : new Mul(leftTemp, rightTemp, dest);
  				break;
-
  			case DIV:
-
- 				Instruction div;
-
- 				if (left.getType().toString() == "INT" && right.getType().toString() == "INT")
- 				{
-					div = new Div(left.temp, right.temp, generateTemp(Scope.InnerType.INT));
-					co.type = right.type;
- 					
- 				}
-				else if (left.getType().toString() == "FLOAT" && right.getType().toString() == "INT" )
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(right);
-					co.code.addAll(temporary.code);
-					div = new FDiv(left.temp, temporary.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-
-				else if (left.getType().toString() == "INT" && right.getType().toString() == "FLOAT")
-				{
-					CodeObject temporary = new CodeObject();
-					temporary = toFloat(left);
-					co.code.addAll(temporary.code);
-					div = new FDiv(temporary.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = right.type;
-				}
-				else
-				{
-					div = new FDiv(left.temp, right.temp, generateTemp(Scope.InnerType.FLOAT));
-					co.type = left.type;
-				}
-
- 				co.code.add(div);
- 				co.temp = div.getDest();
+ 				op = isFloat ? new FDiv(leftTemp, rightTemp, dest) : new Div(leftTemp, rightTemp, dest);
  				break;
  		}
 
+ 		co.code.add(op);
+ 		co.temp = dest;
+ 		co.type = node.getType();
  		co.lval = false;
 
  		return co;
@@ -323,10 +308,16 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
  		co.code.addAll(expr.code);
 
- 		Instruction neg = new Neg(expr.temp, generateTemp(Scope.InnerType.INT));
+ 		Instruction neg;
+ 		if (node.getType() == Scope.Type.FLOAT) {
+ 			neg = new FNeg(expr.temp, generateTemp(Scope.InnerType.FLOAT));
+ 		} else {
+ 			neg = new Neg(expr.temp, generateTemp(Scope.InnerType.INT));
+ 		}
  		co.code.add(neg);
  		co.temp = neg.getDest();
  		co.lval = false;
+ 		co.type = node.getType();
 
  		return co;
  	}
@@ -366,43 +357,40 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
  				if (right.lval == true)
  				{
- 					CodeObject varAddr = rvalify(right);
+ 					CodeObject varAddr = rvalify(right); //includes the code of right
  					co.code.addAll(varAddr.code);
  					right.temp = varAddr.temp; //set the output of the load as the new temp for left
  				}
-
-				co.code.addAll(right.code);
+ 				else
+ 				{
+ 					co.code.addAll(right.code);
+ 				}
 				 
 			
 				
 				Instruction store;
-				if (left.getType().toString() == "FLOAT" && right.getType().toString() == "FLOAT") 				{
+				Scope.Type leftType = left.getType();
+				Scope.Type rightType = right.getType();
+				if (leftType == Scope.Type.FLOAT && rightType == Scope.Type.FLOAT) {
 					store = new Fsw(right.temp, left.temp, "0");
-					co.type = new Scope.Type(InnerType.FLOAT);
 				}
-
-				else if (left.getType() .toString() == "INT" && right.getType().toString() == "FLOAT")
+				else if (leftType == Scope.Type.INT && rightType == Scope.Type.FLOAT)
 				{
 					CodeObject temporary = toInt(right);
 					co.code.addAll(temporary.code);
 					store = new Sw(temporary.temp, left.temp, "0");
-					co.type = new Scope.Type(InnerType.INT);
 				}
-				
-				else if (left.getType() .toString() == "FLOAT" && right.getType().toString() == "INT")
+				else if (leftType == Scope.Type.FLOAT && rightType == Scope.Type.INT)
 				{
 					CodeObject temporary = toFloat(right);
 					co.code.addAll(temporary.code);
 					store = new Fsw(temporary.temp, left.temp, "0");
-					co.type = new Scope.Type(InnerType.FLOAT);
-			    }
-				 
+				}
 				else
 				{
 					store = new Sw(right.temp, left.temp, "0");
-					co.type = new Scope.Type(InnerType.INT);
-				} 
-				
+				}
+				co.type = node.getType();
 
  				co.code.add(store);
  				co.lval = false;
@@ -418,7 +406,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	 {
 		CodeObject co = new CodeObject();
 
-		if (node.getNewType().toString() ==  "INT") {
+		if (node.getNewType() == Scope.Type.INT) {
 
 			if (expr.lval == true)
 			{
@@ -432,7 +420,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			co.temp = move.code.getLast().getDest();
 		}
 
-		else if (node.getNewType().toString() ==  "FLOAT")
+		else if (node.getNewType() == Scope.Type.FLOAT)
 		{
 
 			if (expr.lval == true)
@@ -495,7 +483,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 				il.add(geti);
 				InstructionList store = new InstructionList();
 				if (var.getSTE().isLocal()) {
-					store.add(new Sw(geti.getDest(), "fp", String.valueOf(var.getSTE().addressToString())));
+					store.add(new Sw(geti.getDest(), "fp", localAddress(var.getSTE())));
 				} else {
 					store.addAll(generateAddrFromVariable_beta(var));
 					store.add(new Sw(geti.getDest(), store.getLast().getDest(), "0"));
@@ -511,7 +499,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 				il.add(getf);
 				InstructionList fstore = new InstructionList();
 				if (var.getSTE().isLocal()) {
-					fstore.add(new Fsw(getf.getDest(), "fp", String.valueOf(var.getSTE().addressToString())));
+					fstore.add(new Fsw(getf.getDest(), "fp", localAddress(var.getSTE())));
 				} else {
 					fstore.addAll(generateAddrFromVariable_beta(var));
 					fstore.add(new Fsw(getf.getDest(), fstore.getLast().getDest(), "0"));
@@ -556,8 +544,6 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			//Step 1:
 			assert(expr.getSTE() != null);
 
-			System.out.println("; generating code to print " + expr.getSTE());
-
 			//Get the address of the variable
 			InstructionList addrCo = generateAddrFromVariable_beta(expr);
 			co.code.addAll(addrCo);
@@ -631,21 +617,25 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
  		if (left.lval == true)
  		{
- 			CodeObject temp = rvalify(left);
+ 			CodeObject temp = rvalify(left); //includes the code of left
  			left.temp = temp.temp;
  			co.code.addAll(temp.code);
  		}
-
- 		co.code.addAll(left.code);
+ 		else
+ 		{
+ 			co.code.addAll(left.code);
+ 		}
 
  		if (right.lval == true)
  		{
- 			CodeObject temp = rvalify(right);
+ 			CodeObject temp = rvalify(right); //includes the code of right
  			right.temp = temp.temp;
  			co.code.addAll(temp.code);
  		}
-
- 		co.code.addAll(right.code);
+ 		else
+ 		{
+ 			co.code.addAll(right.code);
+ 		}
 
  		co.leftTemp = left.temp;
  		co.rightTemp = right.temp;
@@ -870,6 +860,17 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	 *		j loopLabel
 	 *		outLabel:
 	 *
+	 * 		When optimizing, the test goes at the bottom instead, so each trip
+	 * 		takes one branch rather than a branch and a jump. The condition is
+	 * 		tested once more up front, to skip the loop entirely:
+	 *		<cond code>
+	 *		<flipped branch> outLabel
+	 *		loopLabel:
+	 *		<body code>
+	 *		<cond code, generated again>
+	 *		<branch> loopLabel
+	 *		outLabel:
+	 *
 	 * Step 5 insert code into code object in appropriate order.
 	 */
 	@Override
@@ -878,104 +879,214 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
  		CodeObject co = new CodeObject();
 
  		String loopLab = generateLoopLabel();
- 		Scope.Type loopType = cond.branchScope; //float or integer comparison
- 		CondNode.OpType branchOP = cond.branch_type;
- 		Instruction floatComparator;
- 		Instruction compareZero;
  		String output = generateOutLabel();
 
- 		co.code.add(new Label(loopLab));
+ 		if (!optimize)
+ 		{
+ 			co.code.add(new Label(loopLab));
+ 			co.code.addAll(cond.code);
+ 			co.code.addAll(generateBranch(cond, cond.branch_type, output));
+ 			co.code.addAll(slist.code);
+ 			co.code.add(new J(loopLab));
+ 			co.code.add(new Label(output));
+ 			co.temp = slist.temp;
+ 			return co;
+ 		}
+
+ 		//guard
  		co.code.addAll(cond.code);
+ 		co.code.addAll(generateBranch(cond, cond.branch_type, output));
 
+ 		co.code.add(new Label(loopLab));
+ 		co.code.addAll(slist.code);
 
- 		if (loopType.type == Scope.InnerType.FLOAT)
- 		{
- 			switch(branchOP)
- 			{
- 				case EQ:
- 					floatComparator = new Feq(cond.leftTemp, cond.rightTemp, generateTemp(Scope.InnerType.INT));
- 					break;
- 				case GE:
- 					floatComparator = new Fle(cond.rightTemp, cond.leftTemp, generateTemp(Scope.InnerType.INT));
- 					break;
- 				case GT:
- 					floatComparator = new Flt(cond.rightTemp, cond.leftTemp, generateTemp(Scope.InnerType.INT));
- 					break;
- 				case LE:
- 					floatComparator = new Fle(cond.leftTemp, cond.rightTemp, generateTemp(Scope.InnerType.INT));
- 					break;
- 				case LT:
- 					floatComparator = new Flt(cond.leftTemp, cond.rightTemp, generateTemp(Scope.InnerType.INT));
- 					break;
- 				case NE:
- 					floatComparator = new Feq(cond.leftTemp, cond.rightTemp, generateTemp(Scope.InnerType.INT));
- 					break;
- 				default:
- 					throw new Error ("Bad op type");
- 			}
+ 		//bottom test; generate the condition again rather than copy it, since
+ 		//a call inlined into it has labels that cannot be defined twice
+ 		CodeObject bottom = node.getCond().accept(this);
+ 		co.code.addAll(bottom.code);
+ 		co.code.addAll(generateBranch(bottom, node.getCond().getOp(), loopLab));
 
- 			co.code.add(floatComparator);
+ 		co.code.add(new Label(output));
+ 		co.temp = slist.temp;
+ 		return co;
+ 	}
 
- 			if (branchOP  == CondNode.OpType.NE)
- 			{
- 				compareZero = new Beq(floatComparator.getDest(), "x0", output);
- 			}
- 			else
- 			{
- 				compareZero = new Bne(floatComparator.getDest(), "x0", output);
- 			}
+	/**
+	 * Generate a branch to <code>target</code> that is taken when
+	 * <code>left op right</code> holds, for the operands of a condition. Floats
+	 * are compared into an int temp first, which is then tested against zero.
+	 *
+	 * @param cond code object of a CondNode, after its code
+	 * @return the comparison (for floats) and the branch
+	 */
+	private List<Instruction> generateBranch(CodeObject cond, CondNode.OpType op, String target) {
+		List<Instruction> code = new ArrayList<Instruction>();
+		if (cond.branchScope.type == Scope.InnerType.FLOAT)
+		{
+			String result = generateTemp(Scope.InnerType.INT);
+			Instruction floatComparator;
+			switch(op)
+			{
+				case EQ:
+				case NE: //equality, then branch if it does not hold
+					floatComparator = new Feq(cond.leftTemp, cond.rightTemp, result);
+					break;
+				case GE:
+					floatComparator = new Fle(cond.rightTemp, cond.leftTemp, result);
+					break;
+				case GT:
+					floatComparator = new Flt(cond.rightTemp, cond.leftTemp, result);
+					break;
+				case LE:
+					floatComparator = new Fle(cond.leftTemp, cond.rightTemp, result);
+					break;
+				case LT:
+					floatComparator = new Flt(cond.leftTemp, cond.rightTemp, result);
+					break;
+				default:
+					throw new Error ("Bad op type");
+			}
+			code.add(floatComparator);
+			code.add((op == CondNode.OpType.NE) ? new Beq(result, "x0", target) : new Bne(result, "x0", target));
+			return code;
+		}
 
- 			co.code.add(compareZero);
- 			co.code.addAll(slist.code);
- 			Instruction branch = new J(loopLab);
- 			co.code.add(branch);
- 			Instruction labOut = new Label(output);
- 			co.code.add(labOut);
- 			co.temp = slist.temp;
+		switch(op)
+		{
+			case EQ:
+				code.add(new Beq(cond.leftTemp, cond.rightTemp, target));
+				break;
+			case GE:
+				code.add(new Bge(cond.leftTemp, cond.rightTemp, target));
+				break;
+			case GT:
+				code.add(new Bgt(cond.leftTemp, cond.rightTemp, target));
+				break;
+			case LE:
+				code.add(new Ble(cond.leftTemp, cond.rightTemp, target));
+				break;
+			case LT:
+				code.add(new Blt(cond.leftTemp, cond.rightTemp, target));
+				break;
+			case NE:
+				code.add(new Bne(cond.leftTemp, cond.rightTemp, target));
+				break;
+			default:
+				throw new Error ("Bad op type");
+		}
+		return code;
+	}
 
- 			//nested if/else
- 			//if else is null
- 		}
+	/**
+	 * A return of a call is a tail call: nothing is left to do once the callee
+	 * returns, so with optimizations on, we jump to it instead (see
+	 * {@link #generateTailCall(CallNode, List)}), and deep recursion runs in a
+	 * frame of constant size. Not if the function takes the address of a local
+	 * or argument, though: the callee could be reading it through a pointer.
+	 */
+	@Override
+	public CodeObject visit(ReturnNode node) {
+		if (optimize && node.getRetExpr() instanceof CallNode && isTailCall((CallNode) node.getRetExpr())) {
+			preprocess(node);
+			CallNode call = (CallNode) node.getRetExpr();
+			List<CodeObject> args = new ArrayList<CodeObject>();
+			for (ExpressionNode n : call.getArgs()) {
+				args.add(n.accept(this));
+			}
+			return generateTailCall(call, args);
+		}
+		return super.visit(node);
+	}
 
- 		else
- 		{
- 			switch(branchOP)
- 			{
- 				case EQ:
- 					floatComparator = new Beq(cond.leftTemp, cond.rightTemp, output);
- 					break;
- 				case GE:
- 					floatComparator = new Bge(cond.leftTemp, cond.rightTemp, output);
- 					break;
- 				case GT:
- 					floatComparator = new Bgt(cond.leftTemp, cond.rightTemp, output);
- 					break;
- 				case LE:
- 					floatComparator = new Ble(cond.leftTemp, cond.rightTemp, output);
- 					break;
- 				case LT:
- 					floatComparator = new Blt(cond.leftTemp, cond.rightTemp, output);
- 					break;
- 				case NE:
- 					floatComparator = new Bne(cond.leftTemp, cond.rightTemp, output);
- 					break;
- 				default:
- 					throw new Error ("Bad op type");
- 				}
+	/**
+	 * @return true if we can jump to the function that call calls, instead of
+	 *         calling it, when returning what it returns
+	 */
+	private boolean isTailCall(CallNode call) {
+		String callee = call.getFuncName();
+		if (inlineExit != null || currFunc.equals("main") || inlineCandidates.containsKey(callee)) return false;
+		if (frameAddressTaken) return false; //the callee may be given a pointer into our frame
+		if (callee.equals(currFunc)) return true;
+
+		//the callee's stack arguments have to fit where ours are, and the rest
+		//have to fit in the argument registers
+		int numInts = 0;
+		int numFloats = 0;
+		int numPushed = 0;
+		for (Scope.Type type : call.getSymbol().getArgTypes()) {
+			int n = (type.type == Scope.InnerType.FLOAT) ? numFloats++ : numInts++;
+			if (n >= numArgRegs) numPushed++;
+		}
+		int numStackArgs = currScope.getArguments().size() - currScope.getRegisterArguments().size();
+		return numInts <= maxArgRegs && numFloats <= maxArgRegs && numPushed <= numStackArgs;
+	}
 
- 				co.code.add(floatComparator);
- 				co.code.addAll(slist.code);
- 				Instruction branch = new J(loopLab);
- 				co.code.add(branch);
- 				Instruction labOut = new Label(output);
- 				co.code.add(labOut);
- 				co.temp = slist.temp;
+	/**
+	 * Generate a call in tail position as a jump.
+	 *
+	 * A function calling itself stores the arguments over its own and jumps back
+	 * to the start of its body, which turns the recursion into a loop.
+	 *
+	 * Any other callee reuses our frame: every argument goes in an argument
+	 * register, and the body jumps to an epilogue that stores the ones the callee
+	 * expects on the stack over our own arguments, takes our frame down, and
+	 * jumps to the callee with our return address (see
+	 * {@link #postprocess(FunctionNode, CodeObject)}). Our caller's return value
+	 * slot is where the callee leaves its value too.
+	 */
+	private CodeObject generateTailCall(CallNode node, List<CodeObject> args) {
+		CodeObject co = new CodeObject();
 
+		//evaluate every argument before overwriting any of ours, which they may read
+		List<Scope.Type> types = node.getSymbol().getArgTypes();
+		List<String> temps = generateArgs(co, args, types);
 
- 		}
- 		return co;
+		if (node.getFuncName().equals(currFunc))
+		{
+			List<SymbolTableEntry> params = currScope.getArguments();
+			for (int i = 0; i < params.size(); i++)
+			{
+				String slot = localAddress(params.get(i));
+				if (types.get(i).type == Scope.InnerType.FLOAT) {
+					co.code.add(new Fsw(temps.get(i), "fp", slot));
+				} else {
+					co.code.add(new Sw(temps.get(i), "fp", slot));
+				}
+			}
+			co.code.add(new J(generateFunctionBodyLabel()));
+			selfTailCalls = true;
+		}
+		else
+		{
+			List<String> pushed = new ArrayList<String>(); //registers of the arguments that go on the stack
+			int numInts = 0;
+			int numFloats = 0;
+			for (int i = 0; i < args.size(); i++)
+			{
+				boolean isFloat = types.get(i).type == Scope.InnerType.FLOAT;
+				int n = isFloat ? numFloats++ : numInts++;
+				String reg = argRegister(n, isFloat);
+				co.code.add(isFloat ? new FMv(temps.get(i), reg) : new Mv(temps.get(i), reg));
+				if (n >= numArgRegs) pushed.add(reg);
+			}
 
- 	}
+			//arguments are pushed in order, so the last one ends up lowest
+			int firstArg = (numArgRegs > 0) ? 8 : 12; //above the saved fp and ra, and the return value slot
+			List<Instruction> stores = new ArrayList<Instruction>();
+			for (int j = 0; j < pushed.size(); j++)
+			{
+				String reg = pushed.get(j);
+				String offset = String.valueOf(firstArg + 4 * (pushed.size() - 1 - j));
+				stores.add(reg.startsWith("fa") ? new Fsw(reg, "fp", offset) : new Sw(reg, "fp", offset));
+			}
+			String label = generateTailLabel();
+			siblingCalls.add(new SiblingCall(label, stores, node.getFuncName()));
+			co.code.add(new J(label));
+		}
+
+		co.lval = false;
+		return co;
+	}
 
 	/**
 	 * FILL IN FOR STEP 4
@@ -998,16 +1109,30 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		{
 			if (retExpr.lval == true)
 			{
-				CodeObject temp = rvalify(retExpr);
+				CodeObject temp = rvalify(retExpr); //includes the code of retExpr
 				co.code.addAll(temp.code);
 				retExpr.temp = temp.temp;
 			}
-
-			co.code.addAll(retExpr.code);
+			else
+			{
+				co.code.addAll(retExpr.code);
+			}
 			co.temp = retExpr.temp;
 			Instruction storeResult;
+			boolean isFloat = node.getRetExpr().getType().type == Scope.InnerType.FLOAT;
 
-			if (node.getRetExpr().getType().type == Scope.InnerType.FLOAT)
+			if (inlineExit != null)
+			{
+				//the body is inlined: the value is the result of the call
+				storeResult = isFloat ? new FMv(co.temp, inlineResult) : new Mv(co.temp, inlineResult);
+			}
+			else if (numArgRegs > 0)
+			{
+				//the return value goes back in a register
+				String reg = argRegister(0, isFloat);
+				storeResult = isFloat ? new FMv(co.temp, reg) : new Mv(co.temp, reg);
+			}
+			else if (isFloat)
 			{ 
 				storeResult = new Fsw(co.temp, "fp", "8");
 			}
@@ -1021,6 +1146,8 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			co.lval = false;
 		}
 
+		co.code.add(new J((inlineExit != null) ? inlineExit : generateFunctionOutLabel()));
+
  		return co;
  	}
 
@@ -1028,10 +1155,44 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	protected void preprocess(FunctionNode node) {
 		// Generate function label information, used for other labels inside function
 		currFunc = node.getFuncName();
+		currScope = node.getScope();
 
 		//reset register counts; each function uses new registers!
 		intRegCount = 0;
 		floatRegCount = 0;
+
+		//labels are numbered per function too
+		loopLabel = 0;
+		elseLabel = 0;
+		outLabel = 0;
+		tailLabel = 0;
+
+		numFrameSlots = node.getScope().getNumLocals();
+		inlinedSlots.clear();
+		numInlined = 0;
+		numOutgoingSlots = 0;
+		frameAddressTaken = takesFrameAddress(node);
+		selfTailCalls = false;
+		siblingCalls.clear();
+	}
+
+	/**
+	 * @return true if the body of func takes the address of one of its locals
+	 *         or arguments, which a pointer could still be reading once our frame
+	 *         is reused
+	 */
+	private static boolean takesFrameAddress(FunctionNode func) {
+		final boolean[] taken = new boolean[1];
+		func.getFuncBody().accept(new AbstractASTVisitor<Void>() {
+			@Override
+			protected Void postprocess(AddrOfNode n, Void expr) {
+				if (n.getExpr() instanceof VarNode && ((VarNode) n.getExpr()).getSymbol().isLocal()) {
+					taken[0] = true;
+				}
+				return null;
+			}
+		});
+		return taken[0];
 	}
 
 	/**
@@ -1046,105 +1207,332 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	 * 			b. Move frame pointer to point to base of activation record (current sp)
 	 * 			c. Update stack pointer
 	 *
-	 * Step 3: allocate new stack frame (use scope infromation from FunctionNode)
+	 * Step 3: allocate new stack frame (use scope infromation from FunctionNode), with
+	 * 			an outgoing-argument area at the bottom for the calls the body makes
 	 *
-	 * Step 4: save registers on stack (Can inspect intRegCount and floatRegCount to know what to save)
+	 * Step 4: save registers on stack. The body is run through the {@link RegisterAllocator}
+	 * 			first, so only the physical registers it actually writes need saving
 	 *
 	 * Step 5: add the code from the function body
 	 *
 	 * Step 6: add post-processing code:
 	 * 			a. Label for `return` statements inside function body to jump to
-	 * 			b. Restore registers
+	 * 			b. Restore registers (the same ones saved in step 4)
 	 * 			c. Deallocate stack frame (set stack pointer to frame pointer)
 	 * 			d. Reset fp to old location
 	 * 			e. Return from function
+	 *
+	 * Step 7: add the same for each tail call to another function, but jump to it
+	 * 			instead of returning
 	 */
 	@Override
+	@SuppressWarnings("try") //a timed pass is just the try block around it
  	protected CodeObject postprocess(FunctionNode node, CodeObject body) {
  		CodeObject co = new CodeObject();
 
  		Instruction func_label = new Label(generateFunctionLabel(node.getFuncName()));
  		co.code.add(func_label);
 
- 		//manage frame pointer
- 		// -- save old frame pointer
- 		Instruction save_fp = new Sw("fp", "sp", "0");
- 		co.code.add(save_fp);
+ 		int numLocals = numFrameSlots; //with the variables of inlined functions
 
- 		// -- move frame pointer to point to current sp
- 		Instruction move = new Mv("sp", "fp");
- 		co.code.add(move);
+ 		// arguments that come in registers go to their slots first thing, so the
+ 		// body finds them like any other variable
+ 		InstructionList bodyCode = new InstructionList();
+ 		int numInts = 0;
+ 		int numFloats = 0;
+ 		for (Scope.SymbolTableEntry arg : node.getScope().getRegisterArguments())
+ 		{
+ 			String offset = String.valueOf(arg.getAddress());
+ 			if (arg.getType().type == Scope.InnerType.FLOAT) {
+ 				bodyCode.add(new Fsw(argRegister(numFloats++, true), "fp", offset));
+ 			} else {
+ 				bodyCode.add(new Sw(argRegister(numInts++, false), "fp", offset));
+ 			}
+ 		}
+ 		if (selfTailCalls)
+ 		{
+ 			bodyCode.add(new Label(generateFunctionBodyLabel())); //where tail calls to ourselves jump
+ 		}
+ 		bodyCode.addAll(body.code);
 
- 		// -- update stack pointer
- 		Instruction push = new Addi("sp", "-4", "sp");
- 		co.code.add(push);
+ 		// cut the body into basic blocks; passes over the control-flow graph
+ 		// work on the virtual temps, before register allocation
+ 		ControlFlowGraph cfg = new ControlFlowGraph(bodyCode, node.getFuncName(), generateFunctionOutLabel());
+ 		if (optimize) {
+ 			optimize(cfg);
+ 		}
 
- 		int numLocals = node.getScope().getNumLocals();
- 		String spaceNeeded = Integer.toString(numLocals * 4);
+ 		// map the virtual temps of the body onto physical registers; spill slots
+ 		// live in the frame right below the locals
+ 		RegisterAllocator allocator = new RegisterAllocator(numIntRegs, numFloatRegs);
+ 		bodyCode = allocator.allocate(cfg, -4 * (numLocals + 1));
+ 		List<String> savedRegs = new ArrayList<String>(allocator.getUsedIntRegs());
+ 		savedRegs.addAll(allocator.getUsedFloatRegs());
+
+ 		// locals and spills that are never live at the same time can share a slot
+ 		int numSlots = numLocals + allocator.getNumSpills();
+ 		if (optimize) {
+ 			try (PassTimer.Pass p = startPass("slot-coloring", cfg)) {
+ 				ControlFlowGraph allocated = new ControlFlowGraph(bodyCode, node.getFuncName(), generateFunctionOutLabel());
+ 				numSlots = new StackSlotColoring(allocated, numSlots).run();
+ 				bodyCode = allocated.linearize();
+ 			}
+ 		}
 
- 		Instruction push2 = new Addi("sp", "-" + spaceNeeded, "sp");
- 		co.code.add(push2);
+ 		// locals, spills, saved registers and the outgoing-argument area, below
+ 		// the slot of the old fp
+ 		int frameSize = (numSlots + savedRegs.size() + numOutgoingSlots) * 4;
 
- 		// allocate new stack frame
- 		for (int i = 1; i <= intRegCount; i++)
+ 		// a function that makes no calls can leave fp alone: sp does not move
+ 		// while its body runs, so the body can address its frame from sp
+ 		boolean keepFramePointer = !optimize || !canDropFramePointer(bodyCode);
+ 		int savesTop; //offset from sp of the first saved register
+ 		if (keepFramePointer)
  		{
- 			Instruction store = new Sw("t" + i, "sp", "0");
- 			Instruction add = new Addi("sp", "-4", "sp");
- 			co.code.add(store);
- 			co.code.add(add);
+ 			//manage frame pointer
+ 			// -- save old frame pointer
+ 			Instruction save_fp = new Sw("fp", "sp", "0");
+ 			co.code.add(save_fp);
+
+ 			// -- move frame pointer to point to current sp
+ 			Instruction move = new Mv("sp", "fp");
+ 			co.code.add(move);
+
+ 			// -- allocate the frame, leaving sp on a free slot
+ 			co.code.add(new Addi("sp", "-" + (frameSize + 4), "sp"));
+ 			savesTop = 4 * (savedRegs.size() + numOutgoingSlots);
  		}
-
- 		// allocate new stack frame
- 		for (int j = 1; j <= floatRegCount; j++)
+ 		else
  		{
- 			Instruction store = new Fsw("f" + j, "sp", "0");
- 			Instruction add = new Addi("sp", "-4", "sp");
- 			co.code.add(store);
- 			co.code.add(add);
-
+ 			if (frameSize > 0) co.code.add(new Addi("sp", "-" + frameSize, "sp"));
+ 			savesTop = 4 * (savedRegs.size() + numOutgoingSlots - 1);
+ 			bodyCode = rebaseOnStackPointer(bodyCode, frameSize);
  		}
 
- 		//add code from body
- 		co.code.addAll(body.code);
+ 		// save the registers this function writes
+ 		for (int k = 0; k < savedRegs.size(); k++)
+ 		{
+ 			String reg = savedRegs.get(k);
+ 			String offset = String.valueOf(savesTop - 4 * k);
+ 			co.code.add(isFloatRegister(reg) ? new Fsw(reg, "sp", offset) : new Sw(reg, "sp", offset));
+ 		}
 
- 		//insert jump statement
- 		Instruction jump_Ret = new J(generateFunctionOutLabel());
- 		co.code.add(jump_Ret);
+ 		//add code from body; it falls through to the return label
+ 		co.code.addAll(bodyCode);
 
  		//insert return function
  		Instruction ret_val = new Label(generateFunctionOutLabel());
  		co.code.add(ret_val);
 
- 		for (int j = floatRegCount; j > 0; j--)
- 		{
- 			Instruction add = new Addi("sp", "4", "sp");
- 			Instruction store = new Flw("f" + j, "sp", "0");
- 			co.code.add(add);
- 			co.code.add(store);
- 		}
+ 		co.code.addAll(generateFrameRelease(savedRegs, savesTop, keepFramePointer, frameSize));
 
- 		//restore registers
- 		for (int i = intRegCount; i > 0; i--)
+ 		Instruction return_Label = new Ret();
+ 		co.code.add(return_Label);
+
+ 		// tail calls to other functions leave the same way, but jump to the callee
+ 		for (SiblingCall call : siblingCalls)
  		{
- 			Instruction add = new Addi("sp", "4", "sp");
- 			Instruction store = new Lw("t" + i, "sp", "0");
- 			co.code.add(add);
- 			co.code.add(store);
+ 			co.code.add(new Label(call.label));
+ 			InstructionList stores = new InstructionList();
+ 			stores.addAll(call.stores);
+ 			co.code.addAll(keepFramePointer ? stores : rebaseOnStackPointer(stores, frameSize));
+ 			co.code.addAll(generateFrameRelease(savedRegs, savesTop, keepFramePointer, frameSize));
+ 			co.code.add(new J(generateFunctionLabel(call.callee)));
  		}
 
- 		Instruction move_Ret = new Mv("fp", "sp");
- 		co.code.add(move_Ret);
+ 		return co;
+ 	}
 
- 		Instruction load_return = new Lw("fp", "fp", "0");
- 		co.code.add(load_return);
+	/**
+	 * Generate the end of an epilogue: restore the saved registers and
+	 * deallocate the stack frame, resetting fp to its old location if we moved it
+	 */
+	private InstructionList generateFrameRelease(List<String> savedRegs, int savesTop, boolean keepFramePointer, int frameSize) {
+		InstructionList code = new InstructionList();
 
+		//restore registers
+		for (int k = 0; k < savedRegs.size(); k++)
+		{
+			String reg = savedRegs.get(k);
+			String offset = String.valueOf(savesTop - 4 * k);
+			code.add(isFloatRegister(reg) ? new Flw(reg, "sp", offset) : new Lw(reg, "sp", offset));
+		}
 
+		if (keepFramePointer)
+		{
+			Instruction move_Ret = new Mv("fp", "sp");
+			code.add(move_Ret);
 
- 		Instruction return_Label = new Ret();
- 		co.code.add(return_Label);
+			Instruction load_return = new Lw("fp", "fp", "0");
+			code.add(load_return);
+		}
+		else if (frameSize > 0)
+		{
+			code.add(new Addi("sp", String.valueOf(frameSize), "sp"));
+		}
 
- 		return co;
- 	}
+		return code;
+	}
+
+	private static boolean isFloatRegister(String reg) {
+		return reg.charAt(0) == floatTempPrefix;
+	}
+
+	/**
+	 * @return true if the allocated body only uses fp to address the frame, and
+	 *         leaves sp where it is (it makes no calls)
+	 */
+	private static boolean canDropFramePointer(InstructionList code) {
+		for (Instruction i : code) {
+			if (i instanceof Jr || "sp".equals(i.getDef()) || "fp".equals(i.getDef())) return false;
+			boolean isAccess = i instanceof Lw || i instanceof Flw || i instanceof Sw || i instanceof Fsw;
+			for (String use : i.getUses()) {
+				if (!"fp".equals(use)) continue;
+				if (isAccess && use.equals(i.getSrc1()) && !use.equals(i.getDest())) continue;
+				if (i instanceof Addi && use.equals(i.getSrc1())) continue;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return code, addressing from sp instead of fp, when sp is frameSize
+	 *         below where fp would be
+	 */
+	private static InstructionList rebaseOnStackPointer(InstructionList code, int frameSize) {
+		InstructionList rebased = new InstructionList();
+		for (Instruction i : code) {
+			if ("fp".equals(i.getSrc1())) {
+				if (i instanceof Addi) {
+					i = new Addi("sp", String.valueOf(Integer.parseInt(i.getSrc2()) + frameSize), i.getDest());
+				} else {
+					String offset = String.valueOf(Integer.parseInt(i.getLabel()) + frameSize);
+					if (i instanceof Lw) i = new Lw(i.getDest(), "sp", offset);
+					else if (i instanceof Flw) i = new Flw(i.getDest(), "sp", offset);
+					else if (i instanceof Sw) i = new Sw(i.getDest(), "sp", offset);
+					else i = new Fsw(i.getDest(), "sp", offset);
+				}
+			}
+			rebased.add(i);
+		}
+		return rebased;
+	}
+
+	/**
+	 * Run the optimizations over the control-flow graph of one function
+	 */
+	@SuppressWarnings("try")
+	private void optimize(ControlFlowGraph cfg) {
+		try (PassTimer.Pass p = startPass("mem2reg", cfg)) {
+			new PromoteLocals(cfg).run();
+		}
+		try (PassTimer.Pass p = startPass("ssa", cfg)) {
+			new SSAConstruction(cfg).run();
+		}
+		cleanup(cfg);
+		int changed;
+		try (PassTimer.Pass p = startPass("licm", cfg)) {
+			changed = new LoopInvariantCodeMotion(cfg).run();
+		}
+		try (PassTimer.Pass p = startPass("strength-reduction", cfg)) {
+			changed += new StrengthReduction(cfg).run();
+		}
+		if (changed > 0) {
+			cleanup(cfg); //hoisting can line up computations from different blocks
+		}
+		try (PassTimer.Pass p = startPass("out-of-ssa", cfg)) {
+			new SSADestruction(cfg).run();
+		}
+	}
+
+	/**
+	 * Run value numbering and dead code elimination until nothing changes
+	 */
+	@SuppressWarnings("try")
+	private void cleanup(ControlFlowGraph cfg) {
+		for (int round = 0; round < maxCleanupRounds; round++) {
+			int changed;
+			try (PassTimer.Pass p = startPass("lvn", cfg)) {
+				changed = new ValueNumbering(cfg).run();
+			}
+			try (PassTimer.Pass p = startPass("dce", cfg)) {
+				changed += new DeadCodeElimination(cfg).run();
+			}
+			if (changed == 0) break;
+		}
+	}
+
+	/**
+	 * @return a measurement of a pass over one function, or null if we are not timing
+	 */
+	private PassTimer.Pass startPass(String name, ControlFlowGraph cfg) {
+		return (timer == null) ? null : timer.start(name, cfg.getName());
+	}
+
+	/**
+	 * Generate code for each function as an independent fork-join task. Every task
+	 * gets a generator of its own, so the functions share no temp or label counters;
+	 * {@link #postprocess(FunctionListNode, List)} then stitches the results together
+	 * in source order, so the output does not depend on how the tasks are scheduled.
+	 *
+	 * With optimizations on, small leaf functions are inlined: every task gets
+	 * the same map of them, which nothing writes once the tasks start.
+	 */
+	@Override
+	public CodeObject visit(FunctionListNode node) {
+		preprocess(node);
+
+		if (optimize) {
+			for (StatementNode n : node.getFunctions()) {
+				if (!(n instanceof FunctionNode)) continue;
+				FunctionNode f = (FunctionNode) n;
+				int cost = f.getFuncName().equals("main") ? -1 : inlineCost(f);
+				if (cost >= 0 && cost <= maxInlineCost) {
+					inlineCandidates.put(f.getFuncName(), f);
+				}
+			}
+		}
+
+		List<FunctionTask> tasks = new ArrayList<FunctionTask>();
+		for (StatementNode n : node.getFunctions()) {
+			tasks.add(new FunctionTask(n));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		List<CodeObject> fs = new ArrayList<CodeObject>();
+		for (FunctionTask t : tasks) {
+			fs.add(t.join());
+		}
+		return postprocess(node, fs);
+	}
+
+	private class FunctionTask extends RecursiveTask<CodeObject> {
+		private static final long serialVersionUID = 1L;
+
+		private final StatementNode func;
+
+		FunctionTask(StatementNode func) {
+			this.func = func;
+		}
+
+		@Override
+		@SuppressWarnings("try")
+		protected CodeObject compute() {
+			CodeGenerator cg = new CodeGenerator(numIntRegs, numFloatRegs);
+			cg.setOptimize(optimize);
+			cg.setNumArgRegs(numArgRegs);
+			cg.setPassTimer(timer);
+			cg.inlineCandidates = inlineCandidates;
+			if (timer == null) {
+				return func.accept(cg);
+			}
+			String name = (func instanceof FunctionNode) ? ((FunctionNode) func).getFuncName() : null;
+			try (PassTimer.Pass p = timer.start("codegen", name)) {
+				return func.accept(cg);
+			}
+		}
+	}
 
 	/**
 	 * Generate code for the list of functions. This is the "top level" code generation function
@@ -1181,23 +1569,25 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	*
 	* Generate code for a call expression
 	 *
-	 * Step 1: For each argument:
-	 *
-	 * 	Step 1a: insert code of argument (don't forget to rvalify!)
+	 * The bottom of every frame is an outgoing-argument area, big enough for the
+	 * call in the function that passes the most arguments (see
+	 * {@link #postprocess(FunctionNode, CodeObject)}). sp points right below it,
+	 * so it is where the callee's frame starts, and a call never moves sp.
 	 *
-	 * 	Step 1b: push result of argument onto stack
+	 * Step 1: insert the code of every argument (don't forget to rvalify!). All of
+	 * 			them are evaluated first, since an argument may be a call itself,
+	 * 			which uses the same area
 	 *
-	 * Step 2: alloate space for return value
+	 * Step 2: store the arguments in the area, the first one highest, above the
+	 * 			slots for the return value and return address
 	 *
-	 * Step 3: push current return address onto stack
+	 * Step 3: store current return address in its slot
 	 *
 	 * Step 4: jump to function
 	 *
-	 * Step 5: pop return address back from stack
+	 * Step 5: load return address back from its slot
 	 *
-	 * Step 6: pop return value into fresh temporary (destination of call expression)
-	 *
-	 * Step 7: remove arguments from stack (move sp)
+	 * Step 6: load return value into fresh temporary (destination of call expression)
 	 *
 	 * Add special handling for malloc and free
 	 */
@@ -1208,103 +1598,254 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		@Override
 		protected CodeObject postprocess(CallNode node, List<CodeObject> args) {
 
+			FunctionNode callee = inlineCandidates.get(node.getFuncName());
+			if (callee != null && numInlined < maxInlineGrowth) {
+				return generateInlinedCall(node, callee, args);
+			}
+
+			if (numArgRegs > 0) {
+				return generateRegisterCall(node, args);
+			}
+
 			//STEP 0
 			CodeObject co = new CodeObject();
 
-			Instruction store_variable_onto_stack = null;
+			//STEP 1
+			List<Scope.Type> types = node.getSymbol().getArgTypes();
+			List<String> temps = generateArgs(co, args, types);
 
-			//iterate through each argument
-			for (CodeObject arg: args)
+			//STEP 2
+			for (int i = 0; i < args.size(); i++)
 			{
-				if(arg.lval == true)
-				{
-					CodeObject vessel_for_arg_variable = rvalify(arg);
-					co.code.addAll(vessel_for_arg_variable.code);//loads address of argument, always lco(?)
-
-					if (arg.getType().type == Scope.InnerType.INT || arg.getType().type == Scope.InnerType.PTR)
-					{
-						store_variable_onto_stack = new Sw(vessel_for_arg_variable.code.getLast().getDest(), "sp", "0");
-					}
-					else
-					{
-						store_variable_onto_stack = new Fsw(vessel_for_arg_variable.code.getLast().getDest(), "sp", "0");
-					}
+				String offset = String.valueOf(12 + 4 * (args.size() - 1 - i));
+				if (types.get(i).type == Scope.InnerType.FLOAT) {
+					co.code.add(new Fsw(temps.get(i), "sp", offset));
+				} else {
+					co.code.add(new Sw(temps.get(i), "sp", offset));
+				}
+			}
+			reserveOutgoingArgs(2 + args.size()); //the return address, return value and arguments
 
-					co.code.add(store_variable_onto_stack);
+			//STEP 3
+			co.code.add(new Sw("ra", "sp", "4"));
 
-				}
+			//STEP 4
+			Instruction jump = new Jr(generateFunctionLabel(node.getFuncName()));
+			co.code.add(jump);
 
-				else
-				{
-					co.code.addAll(arg.code);
-					store_variable_onto_stack = new Sw(arg.temp, "sp", "0");
-					co.code.add(store_variable_onto_stack);
-				}
+			//STEP 5
+			co.code.add(new Lw("ra", "sp", "4"));
 
-				Instruction increase_stack_pointer = new Addi("sp", "-4", "sp");
-				co.code.add(increase_stack_pointer);
+			//STEP 6: load return value based off type
+			Instruction load_RV;
+			if (node.getType().type == Scope.InnerType.INT || node.getType().type == Scope.InnerType.PTR)
+			{
+				load_RV = new Lw(generateTemp(Scope.InnerType.INT), "sp", "8");
+				co.code.add(load_RV);
+				co.temp = load_RV.getDest();
+			}
+			else if (node.getType().type == Scope.InnerType.FLOAT)
+			{
+				load_RV = new Flw(generateTemp(Scope.InnerType.FLOAT), "sp", "8");
+				co.code.add(load_RV);
+				co.temp = load_RV.getDest();
 			}
 
-			//allocate space for return
+			co.lval = false;
+			co.type = node.getType();
 
-			Instruction ret = new Addi("sp", "-4", "sp");
-			co.code.add(ret);
-			
+			return co;
+		}
 
-			//push return address onto stack
-			Instruction save_Return = new Sw("ra", "sp", "0");
-			co.code.add(save_Return);
+	/**
+	 * Generate a call with the register calling convention: the first
+	 * numArgRegs int and float arguments go in a0, a1, ... and fa0, fa1, ...,
+	 * the rest go in the outgoing-argument area as usual, and the result comes
+	 * back in a0 or fa0, so there is no slot for it.
+	 */
+	private CodeObject generateRegisterCall(CallNode node, List<CodeObject> args) {
+		CodeObject co = new CodeObject();
 
-			Instruction off_ret = new Addi("sp", "-4", "sp");
-			co.code.add(off_ret);
+		//evaluate every argument before filling in the registers, since an
+		//argument may be a call itself
+		List<Scope.Type> types = node.getSymbol().getArgTypes();
+		List<String> temps = generateArgs(co, args, types);
 
-			//jump to function
-			Instruction jump = new Jr(generateFunctionLabel(node.getFuncName()));
-			co.code.add(jump);
+		List<Instruction> moves = new ArrayList<Instruction>();
+		List<Integer> pushed = new ArrayList<Integer>(); //the arguments that go in the area
+		int numInts = 0;
+		int numFloats = 0;
+		for (int i = 0; i < args.size(); i++)
+		{
+			boolean isFloat = types.get(i).type == Scope.InnerType.FLOAT;
+			int n = isFloat ? numFloats++ : numInts++;
+			String temp = temps.get(i);
+			if (n < numArgRegs)
+			{
+				String reg = argRegister(n, isFloat);
+				moves.add(isFloat ? new FMv(temp, reg) : new Mv(temp, reg));
+			}
+			else
+			{
+				pushed.add(i);
+			}
+		}
+		for (int j = 0; j < pushed.size(); j++)
+		{
+			int i = pushed.get(j);
+			String offset = String.valueOf(8 + 4 * (pushed.size() - 1 - j));
+			if (types.get(i).type == Scope.InnerType.FLOAT) {
+				co.code.add(new Fsw(temps.get(i), "sp", offset));
+			} else {
+				co.code.add(new Sw(temps.get(i), "sp", offset));
+			}
+		}
+		reserveOutgoingArgs(1 + pushed.size()); //the return address and the arguments
+		co.code.addAll(moves);
 
-			//pop return address back form stack
-			Instruction pop_RA = new Addi("sp", "4", "sp");
-			co.code.add(pop_RA);
-			Instruction load_RA = new Lw("ra", "sp", "0"); //zero offset since already accounted for with Addi instruction
-			co.code.add(load_RA);
+		//save the return address, call, and load it again
+		co.code.add(new Sw("ra", "sp", "4"));
+		co.code.add(new Jr(generateFunctionLabel(node.getFuncName())));
+		co.code.add(new Lw("ra", "sp", "4"));
 
-			// pop return value
+		if (node.getType().type == Scope.InnerType.FLOAT)
+		{
+			co.temp = generateTemp(Scope.InnerType.FLOAT);
+			co.code.add(new FMv(argRegister(0, true), co.temp));
+		}
+		else if (node.getType().type == Scope.InnerType.INT || node.getType().type == Scope.InnerType.PTR)
+		{
+			co.temp = generateTemp(Scope.InnerType.INT);
+			co.code.add(new Mv(argRegister(0, false), co.temp));
+		}
 
+		co.lval = false;
+		co.type = node.getType();
 
-			Instruction pop_RV = new Addi("sp", "4", "sp");
-			co.code.add(pop_RV);
+		return co;
+	}
 
+	/**
+	 * Make sure the outgoing-argument area of this frame has at least
+	 * <code>numSlots</code> slots above the one at sp, where the callee saves
+	 * our fp
+	 */
+	private void reserveOutgoingArgs(int numSlots) {
+		numOutgoingSlots = Math.max(numOutgoingSlots, numSlots);
+	}
 
-			// load return value based off type
-			Instruction load_RV;
-			if (node.getType().type == Scope.InnerType.INT)
+	/**
+	 * Add the code of every argument to co, in order, converting an int passed
+	 * for a float parameter to a float, and the other way around. Arguments
+	 * are passed by the type of the parameter, since that is all the callee
+	 * knows about them.
+	 *
+	 * @param types the types of the callee's parameters
+	 * @return the temps holding the values of the arguments
+	 */
+	private List<String> generateArgs(CodeObject co, List<CodeObject> args, List<Scope.Type> types) {
+		List<String> temps = new ArrayList<String>();
+		for (int i = 0; i < args.size(); i++)
+		{
+			CodeObject arg = args.get(i);
+			if (arg.lval)
 			{
-				load_RV = new Lw(generateTemp(Scope.InnerType.INT), "sp", "0");
-				co.code.add(load_RV);
-				co.temp = load_RV.getDest();
+				arg = rvalify(arg);
 			}
-			else if (node.getType().type == Scope.InnerType.FLOAT)
+			co.code.addAll(arg.code);
+
+			boolean isFloat = arg.getType().type == Scope.InnerType.FLOAT;
+			boolean paramIsFloat = types.get(i).type == Scope.InnerType.FLOAT;
+			if (paramIsFloat != isFloat)
 			{
-				load_RV = new Flw(generateTemp(Scope.InnerType.FLOAT), "sp", "0");
-				co.code.add(load_RV);
-				co.temp = load_RV.getDest();
+				CodeObject move = paramIsFloat ? toFloat(arg) : toInt(arg);
+				co.code.addAll(move.code);
+				arg = move;
 			}
-			else if (node.getType().type == Scope.InnerType.PTR)
-			{
-				load_RV = new Lw(generateTemp(Scope.InnerType.INT), "sp", "0");
-				co.code.add(load_RV);
-				co.temp = load_RV.getDest();
+			temps.add(arg.temp);
+		}
+		return temps;
+	}
+
+	/**
+	 * Generate a call by putting the body of the callee in its place. The
+	 * callee's arguments and locals get slots of their own at the bottom of this
+	 * frame, which the arguments are stored to like any assignment, so promoting
+	 * locals turns them into temps. Its returns jump past the body, leaving the
+	 * return value in a temp. The body is generated by this generator, so its
+	 * temps and labels cannot clash with ours.
+	 *
+	 * Only leaf functions are inlined (see {@link #inlineCost(FunctionNode)}), so
+	 * the body has no calls in it and cannot be inlining itself.
+	 */
+	private CodeObject generateInlinedCall(CallNode node, FunctionNode callee, List<CodeObject> args) {
+		CodeObject co = new CodeObject();
+
+		//the callee's slots are reused by every inlined call to it, since the
+		//calls cannot overlap
+		LocalScope scope = callee.getScope();
+		for (SymbolTableEntry e : scope.getEntries()) {
+			if (!inlinedSlots.containsKey(e)) {
+				inlinedSlots.put(e, -4 * (++numFrameSlots));
 			}
+		}
 
-			int numLocals = node.getArgs().size();
-			String spaceNeeded = Integer.toString(numLocals * 4);
-			Instruction pop = new Addi("sp", spaceNeeded, "sp");
-			co.code.add(pop);
+		//evaluate every argument before storing any of them, since an argument
+		//may be an inlined call to the same function
+		List<Scope.Type> types = node.getSymbol().getArgTypes();
+		List<String> temps = generateArgs(co, args, types);
+		List<SymbolTableEntry> params = scope.getArguments();
+		for (int i = 0; i < params.size(); i++)
+		{
+			String slot = String.valueOf(inlinedSlots.get(params.get(i)));
+			if (types.get(i).type == Scope.InnerType.FLOAT) {
+				co.code.add(new Fsw(temps.get(i), "fp", slot));
+			} else {
+				co.code.add(new Sw(temps.get(i), "fp", slot));
+			}
+		}
 
-			co.lval = false;
+		Scope.InnerType type = node.getType().type;
+		inlineResult = (type == Scope.InnerType.VOID) ? null : generateTemp(type);
+		inlineExit = generateOutLabel();
+		CodeObject body = callee.getFuncBody().accept(this);
+		co.code.addAll(body.code);
+		co.code.add(new Label(inlineExit));
+		numInlined += body.code.size();
 
-			return co;
+		co.temp = inlineResult;
+		inlineResult = null;
+		inlineExit = null;
+
+		co.lval = false;
+		co.type = node.getType();
+
+		return co;
+	}
+
+	/**
+	 * @return the number of instructions in the body of func, or -1 if it makes
+	 *         calls. This is what inlining a call to func costs.
+	 */
+	private int inlineCost(FunctionNode func) {
+		CodeGenerator cg = new CodeGenerator(numIntRegs, numFloatRegs);
+		cg.setNumArgRegs(numArgRegs);
+		cg.preprocess(func);
+		CodeObject body = func.getFuncBody().accept(cg);
+		for (Instruction i : body.code) {
+			if (i instanceof Jr) return -1;
 		}
+		return body.code.size();
+	}
+
+	/**
+	 * @return the register that the n-th int or float argument is passed in,
+	 *         with the register calling convention. The return value goes back
+	 *         in the first one.
+	 */
+	static String argRegister(int n, boolean isFloat) {
+		return (isFloat ? "fa" : "a") + n;
+	}
 
 	/**
 	 * Generate code for * (expr)
@@ -1341,7 +1882,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
 		co.lval = true;
 
-		co.type =  new Scope.Type(node.getType().type); //null exception
+		co.type = node.getType();
 		
 		return co;
 	}
@@ -1379,8 +1920,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		}
 
 		co.lval = false;
-		Scope.Type T = node.getType().getWrappedType();
-		co.type = T;
+		co.type = node.getType();
 
 		return co;
 	}
@@ -1418,7 +1958,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		Instruction mallc = new Malloc(co.temp, dest);
 		co.code.add(mallc);
 
-		co.type = new Scope.Type(InnerType.INFER);
+		co.type = Scope.Type.INFER;
 		co.temp = dest;
 
 		return co;
@@ -1471,16 +2011,19 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		}
 	}
 
+	// Labels inside a function carry the function's name, so that functions can be
+	// generated independently without their labels clashing
+
 	protected String generateLoopLabel() {
-		return "loop_" + String.valueOf(++loopLabel);
+		return "loop_" + currFunc + "_" + String.valueOf(++loopLabel);
 	}
 
 	protected String generateElseLabel() {
-		return  "else_" + String.valueOf(++elseLabel);
+		return  "else_" + currFunc + "_" + String.valueOf(++elseLabel);
 	}
 
 	protected String generateOutLabel() {
-		return "out_" +  String.valueOf(++outLabel);
+		return "out_" + currFunc + "_" + String.valueOf(++outLabel);
 	}
 
 	protected String generateFunctionLabel() {
@@ -1495,6 +2038,14 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		return "func_ret_" + currFunc;
 	}
 
+	protected String generateFunctionBodyLabel() {
+		return "func_body_" + currFunc;
+	}
+
+	protected String generateTailLabel() {
+		return "tail_" + currFunc + "_" + String.valueOf(++tailLabel);
+	}
+
 	/**
 	 * Take a code object that results in an lval, and create a new code
 	 * object that adds a load to generate the rval.
@@ -1534,17 +2085,9 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			
 		}
 
-		else if (lco.getType().type == InnerType.PTR)
-		{
-			co.code.addAll(lco.code);
-
-			loadOffset = new Lw(generateTemp(Scope.InnerType.INT), "fp", Integer.toString(lco.getSTE().getAddress()));
-
-			co.code.add(loadOffset);
-			co.temp = loadOffset.getDest();
-		}
-
- 		else if (lco.getType().type == Scope.InnerType.INT)
+		// a pointer variable is loaded just like an int: a global one lives at its
+		// address, not at an offset from fp
+ 		else if (lco.getType().type == Scope.InnerType.INT || lco.getType().type == InnerType.PTR)
  		{
 			varAddr = generateAddrFromVariable_beta(lco);
 			loadOffset = new Lw(generateTemp(Scope.InnerType.INT), varAddr.getLast().getDest(), "0");
@@ -1601,7 +2144,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			//need to load fp + offset
 			//addi tmp' fp offset
 			
-			String address = symbol.addressToString();
+			String address = localAddress(symbol);
 			compAddr = new Addi("fp", address, generateTemp(Scope.InnerType.INT));
 			il.add(compAddr); //add instruction to code object
 		} 
@@ -1618,6 +2161,15 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		return il;
 	}
 
+	/**
+	 * @return the offset from fp of a local variable, which for a variable of an
+	 *         inlined function is the slot it got in this frame
+	 */
+	private String localAddress(SymbolTableEntry symbol) {
+		Integer slot = inlinedSlots.get(symbol);
+		return (slot != null) ? String.valueOf(slot) : symbol.addressToString();
+	}
+
 	private CodeObject toInt(CodeObject floatExpr)
 	{
 		CodeObject co = new CodeObject();
@@ -0,0 +1,409 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.dataflow.DataflowAnalysis;
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionBranch;
+import assembly.instructions.J;
+import assembly.instructions.Label;
+import assembly.instructions.Phi;
+
+/**
+ * The control-flow graph of one function body.
+ *
+ * The body is cut into {@link BasicBlock}s at every label and after every jump,
+ * branch, RET and HALT. JR is a call, so it does not end a block. The graph
+ * always has an empty entry block, which falls through to the first instruction,
+ * and an empty exit block, which stands for the function's return label (the
+ * func_ret label that the epilogue adds after the body). A jump to a label that is
+ * not in the body goes to the exit, and so does falling off the end of the body.
+ * (Such a jump is a tail call, which leaves through an epilogue of its own, so it
+ * is never turned into a jump to the exit.)
+ *
+ * The blocks are kept in a layout order, which is the order {@link #linearize()}
+ * writes them back out in. A block whose fall-through successor does not end up
+ * right after it gets a J added, so passes can move blocks around and add new
+ * ones without fixing up the fall-through paths themselves.
+ */
+public class ControlFlowGraph {
+
+	private final String name; //function name, used to make up labels
+	private final String exitLabel;
+	private final List<BasicBlock> blocks; //in layout order, entry first and exit last
+	private final Map<String, BasicBlock> blocksByLabel;
+	private final BasicBlock entry;
+	private final BasicBlock exit;
+	private int numBlocks;
+	private int numLabels;
+	private int[] maxTemp; //highest int and float temp numbers, null until needed
+
+	/**
+	 * @param code the body of the function
+	 * @param name the name of the function
+	 * @param exitLabel the label that return statements jump to
+	 */
+	public ControlFlowGraph(InstructionList code, String name, String exitLabel) {
+		this.name = name;
+		this.exitLabel = exitLabel;
+		this.blocks = new ArrayList<BasicBlock>();
+		this.blocksByLabel = new HashMap<String, BasicBlock>();
+		this.numBlocks = 0;
+		this.numLabels = 0;
+
+		entry = newBlock(null);
+		blocks.add(entry);
+
+		BasicBlock curr = entry;
+		for (Instruction i : code) {
+			if (i instanceof Label) {
+				BasicBlock b = newBlock(i.getLabel());
+				blocksByLabel.put(b.label, b);
+				if (fallsOut(curr)) curr.fallThrough = b;
+				blocks.add(b);
+				curr = b;
+				continue;
+			}
+			if (curr == entry || curr.getTerminator() != null) {
+				//code right after a J, RET or HALT is unreachable, but gets a block anyway
+				BasicBlock b = newBlock(null);
+				if (fallsOut(curr)) curr.fallThrough = b;
+				blocks.add(b);
+				curr = b;
+			}
+			curr.insts.add(i);
+		}
+
+		exit = newBlock(exitLabel);
+		blocksByLabel.put(exitLabel, exit);
+		if (fallsOut(curr)) curr.fallThrough = exit;
+		blocks.add(exit);
+
+		computeEdges();
+	}
+
+	/**
+	 * @return true if control can go past the end of b
+	 */
+	private static boolean fallsOut(BasicBlock b) {
+		return b.insts.isEmpty() || !BasicBlock.endsFlow(b.insts.get(b.insts.size() - 1));
+	}
+
+	private BasicBlock newBlock(String label) {
+		return new BasicBlock(numBlocks++, label);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BasicBlock getEntry() {
+		return entry;
+	}
+
+	public BasicBlock getExit() {
+		return exit;
+	}
+
+	/**
+	 * @return the blocks in layout order, starting with the entry and ending with
+	 *         the exit. Do not add or remove blocks through this list.
+	 */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * @return an upper bound on the ids of the blocks, for passes that keep
+	 *         per-block data in arrays
+	 */
+	public int getNumBlockIds() {
+		return numBlocks;
+	}
+
+	/**
+	 * @return the block that a jump to <code>label</code> goes to
+	 */
+	public BasicBlock getBlock(String label) {
+		BasicBlock b = blocksByLabel.get(label);
+		return (b != null) ? b : exit;
+	}
+
+	/**
+	 * Rebuild the successor and predecessor lists from the terminators and
+	 * fall-through successors of the blocks. Passes that rewrite jumps or
+	 * branches call this when they are done.
+	 */
+	public void computeEdges() {
+		for (BasicBlock b : blocks) {
+			b.succs.clear();
+			b.preds.clear();
+		}
+		for (BasicBlock b : blocks) {
+			Instruction t = b.getTerminator();
+			if (t instanceof J || t instanceof InstructionBranch) {
+				addEdge(b, getBlock(t.getLabel()));
+			}
+			if (b.fallThrough != null) {
+				addEdge(b, b.fallThrough);
+			}
+		}
+	}
+
+	private void addEdge(BasicBlock from, BasicBlock to) {
+		if (!from.succs.contains(to)) {
+			from.succs.add(to);
+			to.preds.add(from);
+		}
+	}
+
+	/**
+	 * Give b a label if it does not have one yet
+	 *
+	 * @return the label of b
+	 */
+	public String ensureLabel(BasicBlock b) {
+		if (b.label == null) {
+			do {
+				b.label = "bb_" + name + "_" + (++numLabels);
+			} while (blocksByLabel.containsKey(b.label)); //the body may come from an earlier graph
+			blocksByLabel.put(b.label, b);
+		}
+		return b.label;
+	}
+
+	/**
+	 * Split b before the instruction at <code>index</code>. The instructions from
+	 * there on move to a new block, which b falls through to and which takes over
+	 * b's successors.
+	 *
+	 * @return the new block
+	 */
+	public BasicBlock splitBlock(BasicBlock b, int index) {
+		BasicBlock rest = newBlock(null);
+		List<Instruction> tail = b.insts.subList(index, b.insts.size());
+		rest.insts.addAll(tail);
+		tail.clear();
+		rest.fallThrough = b.fallThrough;
+		b.fallThrough = rest;
+		blocks.add(blocks.indexOf(b) + 1, rest);
+		for (BasicBlock s : b.succs) {
+			replacePhiPred(s, b, rest);
+		}
+		computeEdges();
+		return rest;
+	}
+
+	/**
+	 * Put a new, empty block on the edge from <code>from</code> to <code>to</code>.
+	 * If from both branches and falls through to <code>to</code>, the branch is the
+	 * edge that gets split.
+	 *
+	 * @return the new block
+	 */
+	public BasicBlock splitEdge(BasicBlock from, BasicBlock to) {
+		BasicBlock mid = newBlock(null);
+		mid.fallThrough = to;
+
+		Instruction t = from.getTerminator();
+		if ((t instanceof J || t instanceof InstructionBranch) && getBlock(t.getLabel()) == to) {
+			from.insts.set(from.insts.size() - 1, t.retarget(ensureLabel(mid)));
+			blocks.add(blocks.indexOf(exit), mid); //out of the way; linearize adds its jump
+		} else if (from.fallThrough == to) {
+			from.fallThrough = mid;
+			blocks.add(blocks.indexOf(from) + 1, mid);
+		} else {
+			throw new IllegalArgumentException("No edge from block " + from.id + " to block " + to.id);
+		}
+		replacePhiPred(to, from, mid);
+		computeEdges();
+		return mid;
+	}
+
+	/**
+	 * Add a new, empty block to the layout right after <code>after</code>. The new
+	 * block falls through to <code>target</code> and nothing goes to it yet.
+	 *
+	 * @return the new block
+	 */
+	public BasicBlock insertBlockAfter(BasicBlock after, BasicBlock target) {
+		BasicBlock b = newBlock(null);
+		b.fallThrough = target;
+		blocks.add(blocks.indexOf(after) + 1, b);
+		computeEdges();
+		return b;
+	}
+
+	/**
+	 * Take a block that nothing goes to out of the graph
+	 */
+	public void removeBlock(BasicBlock b) {
+		if (b == entry || b == exit) {
+			throw new IllegalArgumentException("Cannot remove the entry or exit block");
+		}
+		unlink(b);
+		computeEdges();
+	}
+
+	/**
+	 * Take b out of the layout and out of the phis of its successors. The edges
+	 * still need recomputing.
+	 */
+	private void unlink(BasicBlock b) {
+		blocks.remove(b);
+		if (b.label != null) blocksByLabel.remove(b.label);
+		for (BasicBlock s : b.succs) {
+			for (Instruction i : s.insts) {
+				if (i instanceof Phi) ((Phi) i).removePred(b);
+			}
+		}
+	}
+
+	/**
+	 * Remove every block that cannot be reached from the entry
+	 *
+	 * @return the number of blocks removed
+	 */
+	public int removeUnreachableBlocks() {
+		Set<BasicBlock> reachable = new HashSet<BasicBlock>(reversePostorder());
+		reachable.add(exit);
+		List<BasicBlock> dead = new ArrayList<BasicBlock>();
+		for (BasicBlock b : blocks) {
+			if (!reachable.contains(b)) dead.add(b);
+		}
+		for (BasicBlock b : dead) {
+			unlink(b);
+		}
+		if (!dead.isEmpty()) computeEdges();
+		return dead.size();
+	}
+
+	/**
+	 * Take out the blocks that do nothing but go on to another block (they are
+	 * empty, or hold just a J), sending whatever went to them straight on to
+	 * their successor. Blocks in front of a block with phis stay.
+	 *
+	 * @return the number of blocks removed
+	 */
+	public int removeEmptyBlocks() {
+		int removed = 0;
+		for (BasicBlock b : new ArrayList<BasicBlock>(blocks)) {
+			if (b == entry || b == exit || b.succs.size() != 1) continue;
+			if (b.insts.size() > 1 || (b.insts.size() == 1 && !(b.insts.get(0) instanceof J))) continue;
+			if (b.insts.size() == 1 && !blocksByLabel.containsKey(b.insts.get(0).getLabel())) continue; //a tail call
+			BasicBlock target = b.succs.get(0);
+			if (target == b || (!target.insts.isEmpty() && target.insts.get(0) instanceof Phi)) continue;
+			for (BasicBlock p : b.preds) {
+				Instruction t = p.getTerminator();
+				if ((t instanceof J || t instanceof InstructionBranch) && getBlock(t.getLabel()) == b) {
+					p.insts.set(p.insts.size() - 1, t.retarget(ensureLabel(target)));
+				}
+				if (p.fallThrough == b) p.fallThrough = target;
+			}
+			unlink(b);
+			computeEdges();
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * The phis of b that take a value from <code>oldPred</code> now take it from
+	 * <code>newPred</code>
+	 */
+	private void replacePhiPred(BasicBlock b, BasicBlock oldPred, BasicBlock newPred) {
+		for (Instruction i : b.insts) {
+			if (i instanceof Phi) ((Phi) i).replacePred(oldPred, newPred);
+		}
+	}
+
+	/**
+	 * @return a virtual temp that is not used anywhere in the function yet, of the
+	 *         same class as the temps starting with <code>prefix</code>
+	 */
+	public String newTemp(char prefix) {
+		if (maxTemp == null) {
+			maxTemp = new int[2];
+			for (BasicBlock b : blocks) {
+				for (Instruction i : b.insts) {
+					List<String> regs = i.getUses();
+					regs.add(i.getDef());
+					for (String r : regs) {
+						int n = DataflowAnalysis.tempIndex(r);
+						if (n >= 0) maxTemp[n % 2] = Math.max(maxTemp[n % 2], n / 2);
+					}
+				}
+			}
+		}
+		int c = (prefix == CodeGenerator.floatTempPrefix) ? 1 : 0;
+		return DataflowAnalysis.tempName(2 * (++maxTemp[c]) + c);
+	}
+
+	/**
+	 * @return the blocks that can be reached from the entry, in reverse postorder
+	 *         (every block comes before its successors, except along back edges)
+	 */
+	public List<BasicBlock> reversePostorder() {
+		List<BasicBlock> order = new ArrayList<BasicBlock>();
+		Set<BasicBlock> visited = new HashSet<BasicBlock>();
+
+		//iterative depth-first search, so deep nests of loops cannot overflow the stack
+		List<BasicBlock> stack = new ArrayList<BasicBlock>();
+		List<Integer> nextSucc = new ArrayList<Integer>();
+		stack.add(entry);
+		nextSucc.add(0);
+		visited.add(entry);
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			BasicBlock b = stack.get(top);
+			int n = nextSucc.get(top);
+			if (n < b.succs.size()) {
+				nextSucc.set(top, n + 1);
+				BasicBlock s = b.succs.get(n);
+				if (visited.add(s)) {
+					stack.add(s);
+					nextSucc.add(0);
+				}
+			} else {
+				order.add(b);
+				stack.remove(top);
+				nextSucc.remove(top);
+			}
+		}
+		Collections.reverse(order);
+		return order;
+	}
+
+	/**
+	 * Write the blocks back out as straight-line code, in layout order. The exit
+	 * block's label is left for the epilogue to add.
+	 */
+	public InstructionList linearize() {
+		InstructionList code = new InstructionList();
+		for (int j = 0; j < blocks.size(); j++) {
+			BasicBlock b = blocks.get(j);
+			if (b != exit && b.label != null) code.add(new Label(b.label));
+			code.addAll(b.insts);
+			if (b.fallThrough != null && b != exit) {
+				BasicBlock next = (j + 1 < blocks.size()) ? blocks.get(j + 1) : null;
+				if (b.fallThrough != next) code.add(new J(ensureLabel(b.fallThrough)));
+			}
+		}
+		return code;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (BasicBlock b : blocks) {
+			sb.append(b);
+		}
+		return sb.toString();
+	}
+}
@@ -1,55 +1,176 @@
 package assembly;
 
 import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import assembly.instructions.Instruction;
 
+/**
+ * A list of instructions, built as a rope so that code objects can be spliced
+ * together cheaply.
+ *
+ * Instructions added one at a time go into a small mutable tail. Splicing in
+ * another <code>InstructionList</code> with {@link #addAll(Collection)} freezes
+ * the tails of both lists and joins them with a single concat node, so a child's
+ * code is never copied again no matter how deep it ends up nested. Frozen
+ * segments are immutable, which means they can be shared between lists: the
+ * spliced-in list can keep growing without affecting the list it was added to.
+ *
+ * The rope is flattened into a single segment the first time it is iterated.
+ */
 public class InstructionList implements Collection<Instruction> {
 
-	
-	List<Instruction> nodes;
-	
+	/**
+	 * An immutable piece of the rope
+	 */
+	static abstract class Segment {
+		final int size;
+
+		Segment(int size) {
+			this.size = size;
+		}
+	}
+
+	static class Leaf extends Segment {
+		final Instruction[] items;
+
+		Leaf(Instruction[] items) {
+			super(items.length);
+			this.items = items;
+		}
+	}
+
+	static class Concat extends Segment {
+		final Segment left;
+		final Segment right;
+
+		Concat(Segment left, Segment right) {
+			super(left.size + right.size);
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	Segment frozen; //everything but the tail, null if empty
+	ArrayList<Instruction> tail; //instructions added since the last freeze
+	Instruction last;
+	int size;
+
 	InstructionList() {
-		nodes = new LinkedList<Instruction>();
+		frozen = null;
+		tail = new ArrayList<Instruction>();
+		last = null;
+		size = 0;
+	}
+
+	/**
+	 * Move the tail into the frozen rope so it can be shared.
+	 */
+	private Segment freeze() {
+		if (!tail.isEmpty()) {
+			Leaf leaf = new Leaf(tail.toArray(new Instruction[tail.size()]));
+			frozen = concat(frozen, leaf);
+			tail = new ArrayList<Instruction>();
+		}
+		return frozen;
+	}
+
+	private static Segment concat(Segment left, Segment right) {
+		if (left == null) return right;
+		if (right == null) return left;
+		return new Concat(left, right);
+	}
+
+	/**
+	 * Collapse the rope into a single leaf, so later walks are a plain array scan.
+	 */
+	private Instruction[] flatten() {
+		Segment root = freeze();
+		if (root == null) return new Instruction[0];
+		if (root instanceof Leaf) return ((Leaf) root).items;
+
+		Instruction[] items = new Instruction[root.size];
+		int pos = 0;
+		Deque<Segment> stack = new ArrayDeque<Segment>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Segment s = stack.pop();
+			if (s instanceof Concat) {
+				stack.push(((Concat) s).right);
+				stack.push(((Concat) s).left);
+			} else {
+				Instruction[] leafItems = ((Leaf) s).items;
+				System.arraycopy(leafItems, 0, items, pos, leafItems.length);
+				pos += leafItems.length;
+			}
+		}
+
+		frozen = new Leaf(items);
+		return items;
 	}
-		
+
 	@Override
 	public Iterator<Instruction> iterator() {
-		return nodes.iterator();
+		final Instruction[] items = flatten();
+		return new Iterator<Instruction>() {
+			int pos = 0;
+
+			@Override
+			public boolean hasNext() {
+				return pos < items.length;
+			}
+
+			@Override
+			public Instruction next() {
+				if (pos >= items.length) throw new NoSuchElementException();
+				return items[pos++];
+			}
+		};
 	}
 
 	@Override
 	public int size() {
-		return nodes.size();
+		return size;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return nodes.isEmpty();
+		return size == 0;
 	}
 
 	@Override
 	public boolean contains(Object o) {
-		return nodes.contains(o);
+		for (Instruction i : this) {
+			if (i.equals(o)) return true;
+		}
+		return false;
 	}
 
 	@Override
 	public Object[] toArray() {
-		return nodes.toArray();
+		return flatten().clone();
 	}
 
 	@Override
 	public <T> T[] toArray(T[] a) {
-		return nodes.toArray(a);
+		ArrayList<Instruction> al = new ArrayList<Instruction>(size);
+		for (Instruction i : flatten()) {
+			al.add(i);
+		}
+		return al.toArray(a);
 	}
 
 	@Override
 	public boolean add(Instruction i) {
-		return nodes.add(i);
+		tail.add(i);
+		last = i;
+		size++;
+		return true;
 	}
 
 	@Override
@@ -59,11 +180,28 @@ public class InstructionList implements Collection<Instruction> {
 
 	@Override
 	public boolean containsAll(Collection<?> c) {
-		return nodes.containsAll(c);
+		for (Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
 	}
 
+	/**
+	 * Append all of <code>c</code>. If <code>c</code> is another InstructionList
+	 * this is a constant-time splice that shares its frozen segments.
+	 */
 	@Override
 	public boolean addAll(Collection<? extends Instruction> c) {
+		if (c instanceof InstructionList) {
+			InstructionList other = (InstructionList) c;
+			if (other.isEmpty()) return false;
+			Segment otherRope = other.freeze();
+			frozen = concat(freeze(), otherRope);
+			last = other.last;
+			size += other.size;
+			return true;
+		}
+
 		boolean retval = false;
 		for (Instruction i : c) {
 			retval |= add(i);
@@ -85,12 +223,12 @@ public class InstructionList implements Collection<Instruction> {
 	public void clear() {
 		throw new UnsupportedOperationException();
 	}
-	
+
 	public String toString() {
-		
+
 		StringWriter sw = new StringWriter();
-		
-		for (Instruction ir : nodes) {
+
+		for (Instruction ir : this) {
 			sw.write(ir.toString());
 			sw.write("\n");
 		}
@@ -99,7 +237,8 @@ public class InstructionList implements Collection<Instruction> {
 	}
 
 	public Instruction getLast() {
-		return nodes.get(nodes.size() - 1);
+		if (last == null) throw new IndexOutOfBoundsException();
+		return last;
 	}
-	
+
 }
@@ -0,0 +1,124 @@
+package assembly;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.instructions.Instruction;
+import assembly.peephole.FoldAddressRule;
+import assembly.peephole.JumpToNextRule;
+import assembly.peephole.MergeAddiRule;
+import assembly.peephole.PeepholeRule;
+import assembly.peephole.StoreLoadRule;
+
+/**
+ * Cleans up the final code of a program with a set of {@link PeepholeRule}s.
+ *
+ * This runs after register allocation, so the rules see physical registers and
+ * the whole program, prologues and epilogues included. Every rule is tried at
+ * every instruction, and the sweep repeats until no rule fires, since one rewrite
+ * often sets up another (folding an address can put a store right next to a load
+ * of the same slot).
+ *
+ * The optimizer counts how many times each rule fired.
+ */
+public class PeepholeOptimizer {
+
+	static final private int maxSweeps = 16;
+
+	private final List<PeepholeRule> rules;
+	private final Map<String, Integer> counts;
+
+	public PeepholeOptimizer(List<PeepholeRule> rules) {
+		this.rules = rules;
+		this.counts = new LinkedHashMap<String, Integer>();
+		for (PeepholeRule r : rules) {
+			counts.put(r.getName(), 0);
+		}
+	}
+
+	/**
+	 * @return a new instance of each of the standard rules
+	 */
+	public static List<PeepholeRule> defaultRules() {
+		return new ArrayList<PeepholeRule>(Arrays.asList(
+				new JumpToNextRule(),
+				new MergeAddiRule(),
+				new FoldAddressRule(),
+				new StoreLoadRule()));
+	}
+
+	/**
+	 * @param names names of the rules to use
+	 * @return a new instance of each of the named standard rules
+	 */
+	public static List<PeepholeRule> rules(List<String> names) {
+		List<PeepholeRule> rules = new ArrayList<PeepholeRule>();
+		for (PeepholeRule r : defaultRules()) {
+			if (names.contains(r.getName())) rules.add(r);
+		}
+		if (rules.size() != names.size()) {
+			throw new IllegalArgumentException("Unknown peephole rule in " + names);
+		}
+		return rules;
+	}
+
+	/**
+	 * Optimize the code of <code>co</code>, replacing it
+	 */
+	public void run(CodeObject co) {
+		co.code = optimize(co.code);
+	}
+
+	/**
+	 * @return an optimized copy of <code>code</code>
+	 */
+	public InstructionList optimize(InstructionList code) {
+		Instruction[] insts = code.toArray(new Instruction[code.size()]);
+
+		boolean changed = true;
+		for (int sweep = 0; changed && sweep < maxSweeps; sweep++) {
+			changed = false;
+			for (int i = 0; i < insts.length; i++) {
+				for (PeepholeRule r : rules) {
+					if (insts[i] == null) break;
+					if (r.apply(insts, i)) {
+						counts.put(r.getName(), counts.get(r.getName()) + 1);
+						changed = true;
+					}
+				}
+			}
+		}
+
+		InstructionList result = new InstructionList();
+		for (Instruction i : insts) {
+			if (i != null) result.add(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return how many times each rule fired, in the order of the rules
+	 */
+	public Map<String, Integer> getCounts() {
+		return counts;
+	}
+
+	/**
+	 * Add the counts of <code>other</code>, which has the same rules, to ours
+	 */
+	public void addCounts(PeepholeOptimizer other) {
+		for (Map.Entry<String, Integer> e : other.counts.entrySet()) {
+			counts.put(e.getKey(), counts.get(e.getKey()) + e.getValue());
+		}
+	}
+
+	public void printCounts(PrintStream out) {
+		for (Map.Entry<String, Integer> e : counts.entrySet()) {
+			out.println(String.format("%-20s %8d", e.getKey(), e.getValue()));
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import assembly.dataflow.DataflowAnalysis;
+import assembly.dataflow.Liveness;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.Lw;
+import assembly.instructions.Sw;
+
+/**
+ * Linear scan register allocator.
+ *
+ * Code generation hands out a fresh virtual temporary (t1, t2, ... and f1, f2, ...)
+ * for every intermediate value. This pass maps the virtual temporaries of a single
+ * function body onto a bounded file of physical registers, and spills the
+ * temporaries that do not fit into stack slots in the function's frame.
+ *
+ * Live intervals are computed over the linear order of the instructions, from
+ * the {@link Liveness} of the temps at the block boundaries.
+ *
+ * Two registers of each class are held back as scratch registers for loading and
+ * storing spilled temporaries.
+ */
+public class RegisterAllocator {
+
+	static final public int defaultNumIntRegs = 24;
+	static final public int defaultNumFloatRegs = 24;
+
+	static final private int numScratch = 2;
+
+	/**
+	 * The live range of one virtual temporary, in instruction indices
+	 */
+	static class LiveInterval {
+		String temp;
+		int start;
+		int end;
+		boolean startsWithUse; //true if the first occurrence reads the temp
+		String reg; //physical register, null if spilled
+		int slot; //spill slot, -1 if not spilled
+
+		LiveInterval(String temp, int start, boolean startsWithUse) {
+			this.temp = temp;
+			this.start = start;
+			this.end = start;
+			this.startsWithUse = startsWithUse;
+			this.reg = null;
+			this.slot = -1;
+		}
+
+		boolean isFloat() {
+			return temp.charAt(0) == CodeGenerator.floatTempPrefix;
+		}
+	}
+
+	private int numIntRegs;
+	private int numFloatRegs;
+
+	private int numSpills;
+	private TreeSet<Integer> usedIntRegs;
+	private TreeSet<Integer> usedFloatRegs;
+
+	public RegisterAllocator() {
+		this(defaultNumIntRegs, defaultNumFloatRegs);
+	}
+
+	/**
+	 * @param numIntRegs number of int registers available for temporaries
+	 * @param numFloatRegs number of float registers available for temporaries
+	 */
+	public RegisterAllocator(int numIntRegs, int numFloatRegs) {
+		this.numIntRegs = numIntRegs;
+		this.numFloatRegs = numFloatRegs;
+	}
+
+	/**
+	 * Allocate registers for one function body.
+	 *
+	 * @param cfg the body of the function, using virtual temporaries
+	 * @param firstSlotOffset fp offset of the first free stack slot, used for spills.
+	 *        Further spill slots grow downwards from there.
+	 * @return the body rewritten to use physical registers, with spill code inserted
+	 */
+	public InstructionList allocate(ControlFlowGraph cfg, int firstSlotOffset) {
+		numSpills = 0;
+		usedIntRegs = new TreeSet<Integer>();
+		usedFloatRegs = new TreeSet<Integer>();
+
+		//rebuild the graph from the final order of the code, so instruction numbers
+		//line up with the blocks
+		InstructionList code = cfg.linearize();
+		cfg = new ControlFlowGraph(code, cfg.getName(), cfg.getExit().getLabel());
+
+		List<LiveInterval> intervals = buildIntervals(cfg);
+		linearScan(intervals, false);
+		linearScan(intervals, true);
+
+		Map<String, LiveInterval> byTemp = new HashMap<String, LiveInterval>();
+		for (LiveInterval li : intervals) {
+			byTemp.put(li.temp, li);
+		}
+
+		return rewrite(code, byTemp, firstSlotOffset);
+	}
+
+	/**
+	 * @return the physical int registers written by the allocated code, in order
+	 */
+	public List<String> getUsedIntRegs() {
+		List<String> regs = new LinkedList<String>();
+		for (int r : usedIntRegs) {
+			regs.add(CodeGenerator.intTempPrefix + String.valueOf(r));
+		}
+		return regs;
+	}
+
+	/**
+	 * @return the physical float registers written by the allocated code, in order
+	 */
+	public List<String> getUsedFloatRegs() {
+		List<String> regs = new LinkedList<String>();
+		for (int r : usedFloatRegs) {
+			regs.add(CodeGenerator.floatTempPrefix + String.valueOf(r));
+		}
+		return regs;
+	}
+
+	/**
+	 * @return number of stack slots needed for spilled temporaries
+	 */
+	public int getNumSpills() {
+		return numSpills;
+	}
+
+	/**
+	 * @return true if <code>reg</code> names a virtual temporary (as opposed to
+	 *         sp, fp, ra, x0 or an immediate)
+	 */
+	static boolean isTemp(String reg) {
+		if (reg == null || reg.length() < 2) return false;
+		char c = reg.charAt(0);
+		if (c != CodeGenerator.intTempPrefix && c != CodeGenerator.floatTempPrefix) return false;
+		for (int i = 1; i < reg.length(); i++) {
+			if (!Character.isDigit(reg.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Number the instructions of the body in order, and make each temp's interval
+	 * run from the first to the last instruction where it is live. Liveness is
+	 * computed over the control-flow graph, so a value carried around a loop is
+	 * live for the whole loop.
+	 */
+	private List<LiveInterval> buildIntervals(ControlFlowGraph cfg) {
+		Map<String, LiveInterval> intervals = new LinkedHashMap<String, LiveInterval>();
+		Liveness liveness = new Liveness(cfg);
+		liveness.solve();
+
+		//a graph built straight from a list of instructions lays its blocks out in
+		//the same order, with one extra instruction for each label
+		int idx = 0;
+		for (BasicBlock b : cfg.getBlocks()) {
+			if (b == cfg.getEntry() || b == cfg.getExit()) continue;
+			touchAll(intervals, liveness.getIn(b), idx);
+			if (b.getLabel() != null) idx++;
+			for (Instruction i : b.getInstructions()) {
+				for (String use : i.getUses()) {
+					if (isTemp(use)) touch(intervals, use, idx, true);
+				}
+				if (isTemp(i.getDef())) {
+					touch(intervals, i.getDef(), idx, false);
+				}
+				idx++;
+			}
+			touchAll(intervals, liveness.getOut(b), Math.max(idx - 1, 0));
+		}
+
+		List<LiveInterval> sorted = new ArrayList<LiveInterval>(intervals.values());
+		Collections.sort(sorted, new Comparator<LiveInterval>() {
+			public int compare(LiveInterval a, LiveInterval b) {
+				return Integer.compare(a.start, b.start);
+			}
+		});
+		return sorted;
+	}
+
+	private void touchAll(Map<String, LiveInterval> intervals, BitSet temps, int idx) {
+		for (int t = temps.nextSetBit(0); t >= 0; t = temps.nextSetBit(t + 1)) {
+			touch(intervals, DataflowAnalysis.tempName(t), idx, true);
+		}
+	}
+
+	private void touch(Map<String, LiveInterval> intervals, String temp, int idx, boolean isUse) {
+		LiveInterval li = intervals.get(temp);
+		if (li == null) {
+			intervals.put(temp, new LiveInterval(temp, idx, isUse));
+		} else {
+			li.end = Math.max(li.end, idx);
+		}
+	}
+
+	/**
+	 * Classic linear scan over the intervals of one register class. When we run
+	 * out of registers, spill whichever interval ends last.
+	 */
+	private void linearScan(List<LiveInterval> intervals, boolean isFloat) {
+		int numRegs = (isFloat ? numFloatRegs : numIntRegs) - numScratch;
+		TreeSet<Integer> free = new TreeSet<Integer>();
+		for (int r = 1; r <= numRegs; r++) {
+			free.add(r);
+		}
+		List<LiveInterval> active = new LinkedList<LiveInterval>(); //sorted by end
+
+		for (LiveInterval li : intervals) {
+			if (li.isFloat() != isFloat) continue;
+
+			//expire intervals that are no longer live. An interval ending where this
+			//one is defined can hand over its register, since reads happen first.
+			while (!active.isEmpty()) {
+				LiveInterval a = active.get(0);
+				if (a.end > li.start || (a.end == li.start && li.startsWithUse)) break;
+				active.remove(0);
+				free.add(regNumber(a.reg));
+			}
+
+			if (!free.isEmpty()) {
+				li.reg = regName(free.pollFirst(), isFloat);
+				insertActive(active, li);
+			} else {
+				LiveInterval last = active.get(active.size() - 1);
+				if (last.end > li.end) {
+					//steal the register of the interval that lives longest
+					li.reg = last.reg;
+					last.reg = null;
+					last.slot = numSpills++;
+					active.remove(active.size() - 1);
+					insertActive(active, li);
+				} else {
+					li.slot = numSpills++;
+				}
+			}
+		}
+	}
+
+	private void insertActive(List<LiveInterval> active, LiveInterval li) {
+		int pos = 0;
+		while (pos < active.size() && active.get(pos).end <= li.end) {
+			pos++;
+		}
+		active.add(pos, li);
+	}
+
+	/**
+	 * Rename every virtual temporary to its physical register. Spilled temporaries are
+	 * loaded into a scratch register before each use and stored back after each def.
+	 */
+	private InstructionList rewrite(InstructionList code, Map<String, LiveInterval> intervals, int firstSlotOffset) {
+		InstructionList il = new InstructionList();
+
+		for (Instruction orig : code) {
+			Instruction i = orig.copy();
+			Map<String, String> names = new HashMap<String, String>();
+			int nextIntScratch = 1;
+			int nextFloatScratch = 1;
+
+			for (String use : i.getUses()) {
+				if (!isTemp(use) || names.containsKey(use)) continue;
+				LiveInterval li = intervals.get(use);
+				if (li.reg != null) {
+					names.put(use, li.reg);
+					markUsed(li.reg);
+				} else {
+					String scratch = li.isFloat() ? scratchReg(nextFloatScratch++, true) : scratchReg(nextIntScratch++, false);
+					String offset = String.valueOf(firstSlotOffset - 4 * li.slot);
+					il.add(li.isFloat() ? new Flw(scratch, "fp", offset) : new Lw(scratch, "fp", offset));
+					names.put(use, scratch);
+					markUsed(scratch);
+				}
+			}
+
+			Instruction spillStore = null;
+			String def = i.getDef();
+			if (isTemp(def)) {
+				LiveInterval li = intervals.get(def);
+				if (li.reg != null) {
+					names.put(def, li.reg);
+					markUsed(li.reg);
+				} else {
+					String scratch = names.containsKey(def) ? names.get(def) : scratchReg(1, li.isFloat());
+					String offset = String.valueOf(firstSlotOffset - 4 * li.slot);
+					spillStore = li.isFloat() ? new Fsw(scratch, "fp", offset) : new Sw(scratch, "fp", offset);
+					names.put(def, scratch);
+					markUsed(scratch);
+				}
+			}
+
+			i.renameRegisters(names);
+			il.add(i);
+			if (spillStore != null) {
+				il.add(spillStore);
+			}
+		}
+
+		return il;
+	}
+
+	private String scratchReg(int n, boolean isFloat) {
+		int numRegs = isFloat ? numFloatRegs : numIntRegs;
+		return regName(numRegs - numScratch + n, isFloat);
+	}
+
+	private String regName(int n, boolean isFloat) {
+		return (isFloat ? CodeGenerator.floatTempPrefix : CodeGenerator.intTempPrefix) + String.valueOf(n);
+	}
+
+	private int regNumber(String reg) {
+		return Integer.parseInt(reg.substring(1));
+	}
+
+	private void markUsed(String reg) {
+		if (reg.charAt(0) == CodeGenerator.floatTempPrefix) {
+			usedFloatRegs.add(regNumber(reg));
+		} else {
+			usedIntRegs.add(regNumber(reg));
+		}
+	}
+}
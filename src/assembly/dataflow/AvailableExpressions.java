@@ -0,0 +1,171 @@
+package assembly.dataflow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.instructions.Addi;
+import assembly.instructions.FImm;
+import assembly.instructions.FNeg;
+import assembly.instructions.Flw;
+import assembly.instructions.Free;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.Instruction3O;
+import assembly.instructions.InstructionCAST;
+import assembly.instructions.Jr;
+import assembly.instructions.La;
+import assembly.instructions.Li;
+import assembly.instructions.Lw;
+import assembly.instructions.Neg;
+import assembly.instructions.Sw;
+
+/**
+ * Which expressions certainly still sit in a register at the start and end of
+ * each block. A forward must-problem.
+ *
+ * An expression is an instruction that computes its result from its operands
+ * alone (arithmetic, comparisons, casts, immediates), or a load, together with
+ * the temp it writes: "t4 = t2 + t3" is available if every path computed it and
+ * neither t4 nor t2 nor t3 has been written since. So a pass that finds
+ * <code>t2 + t3</code> computed again while it is available can copy t4 instead.
+ * Loads are also killed by every store and call, since we do not know what they
+ * might write.
+ */
+public class AvailableExpressions extends DataflowAnalysis {
+
+	private final List<String> exprs;
+	private final Map<String, Integer> exprIndex;
+	private final Map<String, BitSet> exprsUsing; //register -> expressions that read it
+	private final BitSet loads;
+
+	public AvailableExpressions(ControlFlowGraph cfg) {
+		super(cfg, true, false);
+		this.exprs = new ArrayList<String>();
+		this.exprIndex = new HashMap<String, Integer>();
+		this.exprsUsing = new HashMap<String, BitSet>();
+		this.loads = new BitSet();
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				String key = key(i);
+				if (key == null || exprIndex.containsKey(key)) continue;
+				int n = exprs.size();
+				exprs.add(key);
+				exprIndex.put(key, n);
+				if (isLoad(i)) loads.set(n);
+				List<String> regs = i.getUses();
+				regs.add(i.getDef());
+				for (String use : regs) {
+					BitSet s = exprsUsing.get(use);
+					if (s == null) {
+						s = new BitSet();
+						exprsUsing.put(use, s);
+					}
+					s.set(n);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected int numFacts() {
+		return exprs.size();
+	}
+
+	@Override
+	protected void initBlock(BasicBlock b, BitSet gen, BitSet kill) {
+		for (Instruction i : b.getInstructions()) {
+			BitSet killed = killedBy(i);
+			if (killed != null) {
+				gen.andNot(killed);
+				kill.or(killed);
+			}
+			int e = generates(i);
+			if (e >= 0) gen.set(e);
+		}
+		kill.andNot(gen);
+	}
+
+	/**
+	 * @return the expressions that i makes unavailable, or null
+	 */
+	private BitSet killedBy(Instruction i) {
+		BitSet killed = null;
+		String def = i.getDef();
+		if (def != null && exprsUsing.containsKey(def)) {
+			killed = (BitSet) exprsUsing.get(def).clone();
+		}
+		if (writesMemory(i)) {
+			if (killed == null) killed = new BitSet();
+			killed.or(loads);
+		}
+		return killed;
+	}
+
+	/**
+	 * Move a set of available expressions from before i to after it
+	 */
+	public void step(Instruction i, BitSet available) {
+		BitSet killed = killedBy(i);
+		if (killed != null) available.andNot(killed);
+		int e = generates(i);
+		if (e >= 0) available.set(e);
+	}
+
+	/**
+	 * @return the expression that is available after i, or -1. Something like
+	 *         ADDI t1, t1, 1 computes an expression but overwrites its operand.
+	 */
+	private int generates(Instruction i) {
+		int e = expressionIndex(i);
+		if (e < 0 || i.getUses().contains(i.getDef())) return -1;
+		return e;
+	}
+
+	/**
+	 * @return the number of the expression that i computes, or -1
+	 */
+	public int expressionIndex(Instruction i) {
+		String key = key(i);
+		if (key == null) return -1;
+		Integer n = exprIndex.get(key);
+		return (n != null) ? n : -1;
+	}
+
+	/**
+	 * @return the expression numbered <code>n</code>, as "dest = opcode operands"
+	 */
+	public String getExpression(int n) {
+		return exprs.get(n);
+	}
+
+	/**
+	 * @return a key that is the same for instructions that compute the same
+	 *         expression into the same temp, or null if i does not compute an
+	 *         expression
+	 */
+	public static String key(Instruction i) {
+		if (!(i instanceof Instruction3O || i instanceof Addi || i instanceof Neg || i instanceof FNeg
+				|| i instanceof InstructionCAST || i instanceof Li || i instanceof La || i instanceof FImm
+				|| isLoad(i))) {
+			return null;
+		}
+		return i.getDef() + " = " + i.getClass().getSimpleName() + " " + i.getSrc1() + " " + i.getSrc2() + " " + i.getLabel();
+	}
+
+	private static boolean isLoad(Instruction i) {
+		return i instanceof Lw || i instanceof Flw;
+	}
+
+	/**
+	 * @return true if i may change memory: stores, calls and FREE
+	 */
+	public static boolean writesMemory(Instruction i) {
+		return i instanceof Sw || i instanceof Fsw || i instanceof Jr || i instanceof Free;
+	}
+}
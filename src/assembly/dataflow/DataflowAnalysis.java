@@ -0,0 +1,207 @@
+package assembly.dataflow;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import assembly.BasicBlock;
+import assembly.CodeGenerator;
+import assembly.ControlFlowGraph;
+import assembly.instructions.Instruction;
+
+/**
+ * A bit-vector dataflow problem over the blocks of a {@link ControlFlowGraph}.
+ *
+ * Subclasses number the facts they track (temps, definitions, expressions),
+ * fill in a gen and a kill set for every block, and pick a direction and a meet.
+ * The transfer function of a block is always <code>gen | (x & ~kill)</code>.
+ * The solver is a worklist algorithm that starts from the blocks in reverse
+ * postorder (or its reverse, for backward problems), so most problems settle in
+ * two or three passes over the graph.
+ *
+ * Facts are kept in {@link BitSet}s, indexed by block id.
+ */
+public abstract class DataflowAnalysis {
+
+	protected final ControlFlowGraph cfg;
+	private final boolean forward;
+	private final boolean union; //meet is union (may) or intersection (must)
+
+	protected BitSet[] gen;
+	protected BitSet[] kill;
+	protected BitSet[] in;
+	protected BitSet[] out;
+
+	protected DataflowAnalysis(ControlFlowGraph cfg, boolean forward, boolean union) {
+		this.cfg = cfg;
+		this.forward = forward;
+		this.union = union;
+	}
+
+	/**
+	 * @return the number of facts
+	 */
+	protected abstract int numFacts();
+
+	/**
+	 * Fill in the gen and kill sets of b
+	 */
+	protected abstract void initBlock(BasicBlock b, BitSet gen, BitSet kill);
+
+	/**
+	 * @return the facts that hold at the start of the entry (forward problems)
+	 *         or the end of the exit (backward problems). Empty unless overridden.
+	 */
+	protected BitSet boundary() {
+		return new BitSet();
+	}
+
+	/**
+	 * Compute the facts at the start and end of every block
+	 */
+	public void solve() {
+		int n = cfg.getNumBlockIds();
+		gen = new BitSet[n];
+		kill = new BitSet[n];
+		in = new BitSet[n];
+		out = new BitSet[n];
+
+		BitSet top = new BitSet();
+		if (!union) top.set(0, numFacts());
+
+		List<BasicBlock> order = order();
+		for (BasicBlock b : order) {
+			gen[b.getId()] = new BitSet();
+			kill[b.getId()] = new BitSet();
+			initBlock(b, gen[b.getId()], kill[b.getId()]);
+			in[b.getId()] = (BitSet) top.clone();
+			out[b.getId()] = (BitSet) top.clone();
+		}
+
+		ArrayDeque<BasicBlock> worklist = new ArrayDeque<BasicBlock>(order);
+		boolean[] queued = new boolean[n];
+		for (BasicBlock b : order) {
+			queued[b.getId()] = true;
+		}
+
+		while (!worklist.isEmpty()) {
+			BasicBlock b = worklist.poll();
+			queued[b.getId()] = false;
+
+			List<BasicBlock> sources = forward ? b.getPredecessors() : b.getSuccessors();
+			BitSet x;
+			if (sources.isEmpty()) {
+				//the entry (or exit), and blocks nothing reaches
+				x = boundary();
+			} else {
+				x = null;
+				for (BasicBlock s : sources) {
+					BitSet y = forward ? out[s.getId()] : in[s.getId()];
+					if (x == null) {
+						x = (BitSet) y.clone();
+					} else if (union) {
+						x.or(y);
+					} else {
+						x.and(y);
+					}
+				}
+			}
+
+			BitSet y = (BitSet) x.clone();
+			y.andNot(kill[b.getId()]);
+			y.or(gen[b.getId()]);
+
+			if (forward) {
+				in[b.getId()] = x;
+				if (y.equals(out[b.getId()])) continue;
+				out[b.getId()] = y;
+			} else {
+				out[b.getId()] = x;
+				if (y.equals(in[b.getId()])) continue;
+				in[b.getId()] = y;
+			}
+
+			for (BasicBlock s : forward ? b.getSuccessors() : b.getPredecessors()) {
+				if (!queued[s.getId()]) {
+					queued[s.getId()] = true;
+					worklist.add(s);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reverse postorder, then the blocks that cannot be reached, so that their
+	 * facts get computed too. Backwards for backward problems.
+	 */
+	private List<BasicBlock> order() {
+		List<BasicBlock> order = cfg.reversePostorder();
+		boolean[] seen = new boolean[cfg.getNumBlockIds()];
+		for (BasicBlock b : order) {
+			seen[b.getId()] = true;
+		}
+		for (BasicBlock b : cfg.getBlocks()) {
+			if (!seen[b.getId()]) order.add(b);
+		}
+		if (!forward) Collections.reverse(order);
+		return order;
+	}
+
+	/**
+	 * @return the facts at the start of b
+	 */
+	public BitSet getIn(BasicBlock b) {
+		return in[b.getId()];
+	}
+
+	/**
+	 * @return the facts at the end of b
+	 */
+	public BitSet getOut(BasicBlock b) {
+		return out[b.getId()];
+	}
+
+	/**
+	 * Virtual temps are numbered by interleaving the two register classes: t<i>n</i>
+	 * is 2<i>n</i> and f<i>n</i> is 2<i>n</i>+1.
+	 *
+	 * @return the number of a virtual temp, or -1 if <code>reg</code> is not one
+	 */
+	public static int tempIndex(String reg) {
+		if (reg == null || reg.length() < 2) return -1;
+		char c = reg.charAt(0);
+		if (c != CodeGenerator.intTempPrefix && c != CodeGenerator.floatTempPrefix) return -1;
+		int n = 0;
+		for (int i = 1; i < reg.length(); i++) {
+			char d = reg.charAt(i);
+			if (d < '0' || d > '9') return -1;
+			n = n * 10 + (d - '0');
+		}
+		return 2 * n + ((c == CodeGenerator.floatTempPrefix) ? 1 : 0);
+	}
+
+	/**
+	 * @return the name of the temp numbered <code>index</code>
+	 */
+	public static String tempName(int index) {
+		char c = (index % 2 == 0) ? CodeGenerator.intTempPrefix : CodeGenerator.floatTempPrefix;
+		return c + String.valueOf(index / 2);
+	}
+
+	/**
+	 * @return one more than the highest temp number in the graph
+	 */
+	protected static int numTemps(ControlFlowGraph cfg) {
+		int max = -1;
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				for (String use : i.getUses()) {
+					max = Math.max(max, tempIndex(use));
+				}
+				max = Math.max(max, tempIndex(i.getDef()));
+			}
+		}
+		return max + 1;
+	}
+}
@@ -0,0 +1,96 @@
+package assembly.dataflow;
+
+import java.util.BitSet;
+import java.util.List;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.instructions.Instruction;
+import assembly.instructions.Phi;
+
+/**
+ * Which virtual temps are live (may still be read) at the start and end of each
+ * block. A backward may-problem over temps, numbered by
+ * {@link DataflowAnalysis#tempIndex(String)}.
+ *
+ * The arguments of a {@link Phi} are read on the edges into its block, not in
+ * the block itself: each one is live at the end of the predecessor it comes from.
+ */
+public class Liveness extends DataflowAnalysis {
+
+	private final int numTemps;
+	private BitSet[] phiUses; //by block id: the phi arguments read on the way out of the block
+
+	public Liveness(ControlFlowGraph cfg) {
+		super(cfg, false, true);
+		this.numTemps = numTemps(cfg);
+	}
+
+	@Override
+	protected int numFacts() {
+		return numTemps;
+	}
+
+	/**
+	 * gen is the temps read before they are written in b, kill the temps written
+	 */
+	@Override
+	protected void initBlock(BasicBlock b, BitSet gen, BitSet kill) {
+		if (phiUses == null) phiUses = new BitSet[cfg.getNumBlockIds()];
+		BitSet uses = new BitSet();
+		for (BasicBlock s : b.getSuccessors()) {
+			for (Instruction i : s.getInstructions()) {
+				if (!(i instanceof Phi)) break;
+				int u = tempIndex(((Phi) i).getArg(b));
+				if (u >= 0) uses.set(u);
+			}
+		}
+		phiUses[b.getId()] = uses;
+
+		gen.or(uses);
+		List<Instruction> insts = b.getInstructions();
+		for (int j = insts.size() - 1; j >= 0; j--) {
+			step(insts.get(j), gen);
+			int def = tempIndex(insts.get(j).getDef());
+			if (def >= 0) kill.set(def);
+		}
+	}
+
+	/**
+	 * @return the temps live at the end of b, including those read by phis in its
+	 *         successors
+	 */
+	@Override
+	public BitSet getOut(BasicBlock b) {
+		BitSet out = (BitSet) super.getOut(b).clone();
+		out.or(phiUses[b.getId()]);
+		return out;
+	}
+
+	/**
+	 * Move a set of live temps from after i to before it
+	 */
+	public static void step(Instruction i, BitSet live) {
+		int def = tempIndex(i.getDef());
+		if (def >= 0) live.clear(def);
+		if (i instanceof Phi) return;
+		for (String use : i.getUses()) {
+			int u = tempIndex(use);
+			if (u >= 0) live.set(u);
+		}
+	}
+
+	/**
+	 * @return the temps live after each instruction of b
+	 */
+	public BitSet[] liveAfter(BasicBlock b) {
+		List<Instruction> insts = b.getInstructions();
+		BitSet[] after = new BitSet[insts.size()];
+		BitSet live = (BitSet) getOut(b).clone();
+		for (int j = insts.size() - 1; j >= 0; j--) {
+			after[j] = (BitSet) live.clone();
+			step(insts.get(j), live);
+		}
+		return after;
+	}
+}
@@ -0,0 +1,109 @@
+package assembly.dataflow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.instructions.Instruction;
+
+/**
+ * Which definitions of virtual temps may reach the start and end of each block.
+ * A forward may-problem over the instructions that write a temp.
+ */
+public class ReachingDefinitions extends DataflowAnalysis {
+
+	/**
+	 * One instruction that writes a temp
+	 */
+	public static class Definition {
+		public final BasicBlock block;
+		public final int index; //position in the block
+		public final int temp;
+
+		Definition(BasicBlock block, int index, int temp) {
+			this.block = block;
+			this.index = index;
+			this.temp = temp;
+		}
+
+		public Instruction getInstruction() {
+			return block.getInstructions().get(index);
+		}
+	}
+
+	private final List<Definition> defs;
+	private final BitSet[] defsOfTemp; //indexed by temp
+	private final int[][] defIndex; //[block id][instruction] -> definition number, or -1
+
+	public ReachingDefinitions(ControlFlowGraph cfg) {
+		super(cfg, true, true);
+		this.defs = new ArrayList<Definition>();
+		this.defsOfTemp = new BitSet[numTemps(cfg)];
+		this.defIndex = new int[cfg.getNumBlockIds()][];
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			defIndex[b.getId()] = new int[insts.size()];
+			for (int j = 0; j < insts.size(); j++) {
+				int t = tempIndex(insts.get(j).getDef());
+				defIndex[b.getId()][j] = (t >= 0) ? defs.size() : -1;
+				if (t < 0) continue;
+				if (defsOfTemp[t] == null) defsOfTemp[t] = new BitSet();
+				defsOfTemp[t].set(defs.size());
+				defs.add(new Definition(b, j, t));
+			}
+		}
+	}
+
+	@Override
+	protected int numFacts() {
+		return defs.size();
+	}
+
+	/**
+	 * gen is the last definition of each temp in b, kill every definition of
+	 * the temps that b writes
+	 */
+	@Override
+	protected void initBlock(BasicBlock b, BitSet gen, BitSet kill) {
+		int[] idx = defIndex[b.getId()];
+		for (int j = 0; j < idx.length; j++) {
+			if (idx[j] < 0) continue;
+			BitSet others = defsOfTemp[defs.get(idx[j]).temp];
+			gen.andNot(others);
+			kill.or(others);
+			gen.set(idx[j]);
+		}
+	}
+
+	/**
+	 * @return the definition with number <code>n</code>
+	 */
+	public Definition getDefinition(int n) {
+		return defs.get(n);
+	}
+
+	/**
+	 * @return the numbers of all of the definitions of <code>temp</code>
+	 */
+	public BitSet getDefinitionsOf(String temp) {
+		int t = tempIndex(temp);
+		return (t >= 0 && t < defsOfTemp.length && defsOfTemp[t] != null) ? defsOfTemp[t] : new BitSet();
+	}
+
+	/**
+	 * @return the definitions that reach the instruction at <code>index</code> in b
+	 */
+	public BitSet reachingBefore(BasicBlock b, int index) {
+		BitSet reaching = (BitSet) getIn(b).clone();
+		int[] idx = defIndex[b.getId()];
+		for (int j = 0; j < index; j++) {
+			if (idx[j] < 0) continue;
+			reaching.andNot(defsOfTemp[defs.get(idx[j]).temp]);
+			reaching.set(idx[j]);
+		}
+		return reaching;
+	}
+}
@@ -1,5 +1,8 @@
 package assembly.instructions;
 
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * Class corresponding to RISC-V ADDI instruction
  * 
@@ -20,5 +23,15 @@ public class Addi extends Instruction3O {
         super(src1, imm, dest);
         this.oc = OpCode.ADDI;
     }
+
+    /**
+     * @return only src1; the second operand is an immediate
+     */
+    @Override
+    public List<String> getUses() {
+        List<String> uses = new LinkedList<String>();
+        uses.add(src1);
+        return uses;
+    }
     
 }
\ No newline at end of file
@@ -2,21 +2,19 @@ package assembly.instructions;
 
 public class Free extends Instruction {
 
-    String src;
-
     /**
-     * Models the magic instruction MALLOC
+     * Models the magic instruction FREE
      */
     public Free(String src) {
         super();
-        this.src = src;
+        this.src1 = src;
         this.oc = OpCode.FREE;
     }
 
     /**
-     * @return "HALT"
+     * @return "FREE src1"
      */
     public String toString() {
-        return String.valueOf(this.oc) + " " + src;
+        return String.valueOf(this.oc) + " " + src1;
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,14 @@
 package assembly.instructions;
 
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Superclass for all Instructions. Most fields do not have accessors
  * because they are only used in toString methods used to emit instructions.
  */
-public abstract class Instruction {
+public abstract class Instruction implements Cloneable {
 
 	/*
 	* list of possible op codess
@@ -55,7 +59,9 @@ public abstract class Instruction {
 		RET("RET"),
 		/* MALLOC AND FREE */
 		MALLOC("MALLOC"),
-		FREE("FREE");
+		FREE("FREE"),
+		/* ONLY IN SSA FORM, NEVER EMITTED */
+		PHI("PHI");
 
 
 		private String opCodeName;
@@ -86,4 +92,100 @@ public abstract class Instruction {
     public String getDest() {
         return this.dest;
     }
+
+	/**
+	 * @return Returns the first source operand (the base address, for loads and stores)
+	 */
+	public String getSrc1() {
+		return this.src1;
+	}
+
+	/**
+	 * @return Returns the second source operand (the immediate, for ADDI)
+	 */
+	public String getSrc2() {
+		return this.src2;
+	}
+
+	/**
+	 * @return Returns the label (or immediate) operand of the instruction. For
+	 *         labels, jumps and branches this is the jump target.
+	 */
+	public String getLabel() {
+		return this.label;
+	}
+
+	/**
+	 * @return Returns the registers read by this instruction. Used by passes
+	 *         (like register allocation) that need to reason about operands
+	 */
+	public List<String> getUses() {
+		List<String> uses = new LinkedList<String>();
+		if (src1 != null) uses.add(src1);
+		if (src2 != null) uses.add(src2);
+		return uses;
+	}
+
+	/**
+	 * @return Returns the register written by this instruction, or null if it
+	 *         does not write one
+	 */
+	public String getDef() {
+		return dest;
+	}
+
+	/**
+	 * Code generation can splice the same instruction object into a list more than
+	 * once, so passes that rewrite operands should work on a copy.
+	 *
+	 * @return Returns a shallow copy of this instruction
+	 */
+	public Instruction copy() {
+		try {
+			return (Instruction) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * @return Returns a copy of this jump or branch that goes to <code>label</code>
+	 *         instead
+	 */
+	public Instruction retarget(String label) {
+		Instruction i = copy();
+		i.label = label;
+		return i;
+	}
+
+	/**
+	 * Rename the registers this instruction reads, but not the one it writes.
+	 * Operands that do not appear as keys in <code>names</code> are left alone.
+	 *
+	 * @param names map from old register name to new register name
+	 */
+	public void renameUses(Map<String, String> names) {
+		if (src1 != null && names.containsKey(src1)) src1 = names.get(src1);
+		if (src2 != null && names.containsKey(src2)) src2 = names.get(src2);
+		if (getDef() == null && dest != null && names.containsKey(dest)) dest = names.get(dest); //a store reads dest
+	}
+
+	/**
+	 * Change the register this instruction writes
+	 */
+	public void renameDef(String name) {
+		if (getDef() != null) dest = name;
+	}
+
+	/**
+	 * Rename the register operands of this instruction. Operands that do not
+	 * appear as keys in <code>names</code> are left alone.
+	 *
+	 * @param names map from old register name to new register name
+	 */
+	public void renameRegisters(Map<String, String> names) {
+		if (src1 != null && names.containsKey(src1)) src1 = names.get(src1);
+		if (src2 != null && names.containsKey(src2)) src2 = names.get(src2);
+		if (dest != null && names.containsKey(dest)) dest = names.get(dest);
+	}
 }
\ No newline at end of file
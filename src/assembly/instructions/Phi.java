@@ -0,0 +1,120 @@
+package assembly.instructions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import assembly.BasicBlock;
+
+/**
+ * A phi function, which only exists while a function is in SSA form
+ *
+ * Models: phi dest [b1: a1] [b2: a2] ... #dest = a<i>i</i> if control came from b<i>i</i>
+ *
+ * There is one argument for every predecessor of the block the phi sits in.
+ * Phis always come first in their block.
+ */
+public class Phi extends Instruction {
+
+	private List<BasicBlock> preds;
+	private List<String> args;
+
+	/**
+	 * Initializes a phi with no arguments yet
+	 *
+	 * @param dest destination operand
+	 */
+	public Phi(String dest) {
+		super();
+		this.dest = dest;
+		this.oc = OpCode.PHI;
+		this.preds = new ArrayList<BasicBlock>();
+		this.args = new ArrayList<String>();
+	}
+
+	/**
+	 * Set the argument for the edge from <code>pred</code>
+	 */
+	public void setArg(BasicBlock pred, String arg) {
+		int i = preds.indexOf(pred);
+		if (i < 0) {
+			preds.add(pred);
+			args.add(arg);
+		} else {
+			args.set(i, arg);
+		}
+	}
+
+	/**
+	 * @return the argument for the edge from <code>pred</code>, or null
+	 */
+	public String getArg(BasicBlock pred) {
+		int i = preds.indexOf(pred);
+		return (i < 0) ? null : args.get(i);
+	}
+
+	public List<BasicBlock> getPreds() {
+		return preds;
+	}
+
+	/**
+	 * The edge from <code>oldPred</code> now comes from <code>newPred</code>, e.g.,
+	 * because a block was put on the edge
+	 */
+	public void replacePred(BasicBlock oldPred, BasicBlock newPred) {
+		int i = preds.indexOf(oldPred);
+		if (i >= 0) preds.set(i, newPred);
+	}
+
+	/**
+	 * Forget the argument for <code>pred</code>, once there is no edge from it
+	 */
+	public void removePred(BasicBlock pred) {
+		int i = preds.indexOf(pred);
+		if (i >= 0) {
+			preds.remove(i);
+			args.remove(i);
+		}
+	}
+
+	/**
+	 * @return the arguments, which are all read (on one edge or another)
+	 */
+	@Override
+	public List<String> getUses() {
+		return new ArrayList<String>(args);
+	}
+
+	@Override
+	public Instruction copy() {
+		Phi p = (Phi) super.copy();
+		p.preds = new ArrayList<BasicBlock>(preds);
+		p.args = new ArrayList<String>(args);
+		return p;
+	}
+
+	@Override
+	public void renameRegisters(Map<String, String> names) {
+		super.renameRegisters(names);
+		renameUses(names);
+	}
+
+	@Override
+	public void renameUses(Map<String, String> names) {
+		for (int i = 0; i < args.size(); i++) {
+			if (names.containsKey(args.get(i))) args.set(i, names.get(args.get(i)));
+		}
+	}
+
+	/**
+	 * @return "PHI dest, [block: arg], ..."
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(OpCode.PHI).append(" ").append(dest);
+		for (int i = 0; i < args.size(); i++) {
+			sb.append(", [").append(preds.get(i).getId()).append(": ").append(args.get(i)).append("]");
+		}
+		return sb.toString();
+	}
+}
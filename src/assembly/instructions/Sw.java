@@ -1,5 +1,8 @@
 package assembly.instructions;
 
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * Class corresponding to RISC-V instruction SW
  * 
@@ -18,5 +21,24 @@ public class Sw extends InstructionLS {
         super(src, baseAddress, offset);
         this.oc = OpCode.SW;
     }
+
+    /**
+     * @return the stored value and the base address; a store reads both
+     */
+    @Override
+    public List<String> getUses() {
+        List<String> uses = new LinkedList<String>();
+        uses.add(dest);
+        uses.add(src1);
+        return uses;
+    }
+
+    /**
+     * @return null; a store does not write a register
+     */
+    @Override
+    public String getDef() {
+        return null;
+    }
     
 }
\ No newline at end of file
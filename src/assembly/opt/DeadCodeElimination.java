@@ -0,0 +1,161 @@
+package assembly.opt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.dataflow.AvailableExpressions;
+import assembly.dataflow.DataflowAnalysis;
+import assembly.instructions.FMv;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.GetF;
+import assembly.instructions.GetI;
+import assembly.instructions.Instruction;
+import assembly.instructions.Lw;
+import assembly.instructions.Malloc;
+import assembly.instructions.Mv;
+import assembly.instructions.Sw;
+
+/**
+ * Removes code that cannot run or whose results are never used.
+ *
+ * Instructions that do something other than write a temp (stores, calls, I/O,
+ * branches, and anything writing sp or fp) are live. So is every instruction
+ * that writes a temp a live instruction reads, and so on back through the
+ * phis. Everything else goes: a call used as a statement no longer loads its
+ * result, and a promoted local that is never read again no longer has its
+ * copies.
+ *
+ * A store that is overwritten by a store to the same address later in the same
+ * block, with nothing in between that could read memory, is dead too. Blocks
+ * that cannot be reached from the entry are removed first.
+ */
+public class DeadCodeElimination {
+
+	private final ControlFlowGraph cfg;
+
+	public DeadCodeElimination(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+	}
+
+	/**
+	 * @return the number of blocks and instructions removed
+	 */
+	public int run() {
+		int removed = cfg.removeUnreachableBlocks();
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			removed += removeOverwrittenStores(b);
+		}
+
+		Map<String, List<Instruction>> defs = new HashMap<String, List<Instruction>>();
+		Set<Instruction> live = Collections.newSetFromMap(new IdentityHashMap<Instruction, Boolean>());
+		ArrayDeque<Instruction> work = new ArrayDeque<Instruction>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				String def = i.getDef();
+				if (def != null) {
+					List<Instruction> l = defs.get(def);
+					if (l == null) {
+						l = new ArrayList<Instruction>(1);
+						defs.put(def, l);
+					}
+					l.add(i);
+				}
+				if (isCritical(i) && live.add(i)) work.add(i);
+			}
+		}
+
+		while (!work.isEmpty()) {
+			Instruction i = work.poll();
+			for (String use : i.getUses()) {
+				List<Instruction> l = defs.get(use);
+				if (l == null) continue;
+				for (Instruction d : l) {
+					if (live.add(d)) work.add(d);
+				}
+			}
+		}
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			int before = insts.size();
+			List<Instruction> kept = new ArrayList<Instruction>(before);
+			for (Instruction i : insts) {
+				if (live.contains(i)) kept.add(i);
+			}
+			if (kept.size() == before) continue;
+			insts.clear();
+			insts.addAll(kept);
+			removed += before - kept.size();
+		}
+		return removed;
+	}
+
+	/**
+	 * @return true if i has to stay whether or not anything reads what it writes
+	 */
+	private static boolean isCritical(Instruction i) {
+		String def = i.getDef();
+		if (def == null || DataflowAnalysis.tempIndex(def) < 0) return true; //stores, jumps, output, sp...
+		return i instanceof GetI || i instanceof GetF || i instanceof Malloc; //they read input or change the heap
+	}
+
+	/**
+	 * Remove the stores in b that a later store to the same address in b
+	 * overwrites before anything can read them
+	 */
+	private static int removeOverwrittenStores(BasicBlock b) {
+		List<Instruction> insts = b.getInstructions();
+		Map<String, Integer> pending = new HashMap<String, Integer>(); //address -> index of the store
+		boolean[] dead = null;
+		int removed = 0;
+		for (int j = 0; j < insts.size(); j++) {
+			Instruction i = insts.get(j);
+			if (i instanceof Sw || i instanceof Fsw) {
+				String addr = i.getLabel() + "(" + i.getSrc1() + ")";
+				Integer prev = pending.put(addr, j);
+				if (prev != null) {
+					if (dead == null) dead = new boolean[insts.size()];
+					dead[prev] = true;
+					removed++;
+				}
+				continue;
+			}
+			if (!(i instanceof Mv || i instanceof FMv || (AvailableExpressions.key(i) != null && !(i instanceof Lw || i instanceof Flw)))) {
+				pending.clear(); //it might read memory, or leave the block
+				continue;
+			}
+			forget(pending, i.getDef());
+		}
+		if (dead == null) return 0;
+
+		List<Instruction> kept = new ArrayList<Instruction>(insts.size());
+		for (int j = 0; j < insts.size(); j++) {
+			if (!dead[j]) kept.add(insts.get(j));
+		}
+		insts.clear();
+		insts.addAll(kept);
+		return removed;
+	}
+
+	/**
+	 * Forget the stores whose address is based on r, which has just been written
+	 */
+	private static void forget(Map<String, Integer> pending, String r) {
+		if (r == null) return;
+		Iterator<String> it = pending.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().endsWith("(" + r + ")")) it.remove();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package assembly.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.dataflow.AvailableExpressions;
+import assembly.dataflow.DataflowAnalysis;
+import assembly.instructions.Addi;
+import assembly.instructions.Div;
+import assembly.instructions.Flw;
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionBranch;
+import assembly.instructions.J;
+import assembly.instructions.La;
+import assembly.instructions.Lw;
+import assembly.instructions.Phi;
+import assembly.ssa.DominatorTree;
+import assembly.ssa.LoopForest;
+
+/**
+ * Moves computations that give the same result on every trip around a loop out
+ * of the loop (loop-invariant code motion).
+ *
+ * Every loop gets a preheader: a block that the loop is entered from and that
+ * only goes to the loop header. An instruction in the loop is invariant if it
+ * computes its result from its operands alone and every operand is written
+ * outside the loop, or by another invariant instruction. Invariant instructions
+ * move to the end of the preheader, inner loops first, so something invariant
+ * in two nested loops ends up in front of both.
+ *
+ * In SSA form, computing a value that is never used is harmless, so the
+ * instruction does not have to run on every trip. The exceptions are DIV, which
+ * could divide by zero on a path that never divided, and loads: a load only
+ * moves if the loop writes no memory at all (no stores, calls or FREE) and it
+ * reads from the frame or from a global, which are always there.
+ */
+public class LoopInvariantCodeMotion {
+
+	private final ControlFlowGraph cfg;
+	private final Map<String, Integer> numDefs;
+	private final Map<String, Instruction> defs; //temp -> the instruction that writes it
+
+	public LoopInvariantCodeMotion(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		this.numDefs = new HashMap<String, Integer>();
+		this.defs = new HashMap<String, Instruction>();
+	}
+
+	/**
+	 * @return the number of instructions moved
+	 */
+	public int run() {
+		DominatorTree dom = new DominatorTree(cfg);
+		LoopForest loops = new LoopForest(cfg, dom);
+		if (loops.getLoops().isEmpty()) return 0;
+
+		//make the preheaders first, so the loops found again include them
+		boolean split = false;
+		for (LoopForest.Loop l : loops.getLoops()) {
+			BasicBlock p = outsidePredecessor(l);
+			if (p != null && p.getSuccessors().size() > 1) {
+				cfg.splitEdge(p, l.getHeader());
+				split = true;
+			}
+		}
+		if (split) {
+			dom = new DominatorTree(cfg);
+			loops = new LoopForest(cfg, dom);
+		}
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				String def = i.getDef();
+				if (def == null) continue;
+				numDefs.put(def, numDefs.containsKey(def) ? numDefs.get(def) + 1 : 1);
+				defs.put(def, i);
+			}
+		}
+
+		int moved = 0;
+		for (LoopForest.Loop l : loops.getLoops()) {
+			BasicBlock pre = outsidePredecessor(l);
+			if (pre == null || pre.getSuccessors().size() != 1 || pre.getTerminator() instanceof InstructionBranch) continue;
+			moved += hoist(l, pre);
+		}
+		return moved;
+	}
+
+	/**
+	 * @return the one block outside l that goes to its header, or null if there
+	 *         are several
+	 */
+	private static BasicBlock outsidePredecessor(LoopForest.Loop l) {
+		BasicBlock outside = null;
+		for (BasicBlock p : l.getHeader().getPredecessors()) {
+			if (l.contains(p)) continue;
+			if (outside != null) return null;
+			outside = p;
+		}
+		return outside;
+	}
+
+	private int hoist(LoopForest.Loop l, BasicBlock pre) {
+		Set<String> written = new HashSet<String>(); //registers written in the loop
+		boolean writesMemory = false;
+		for (BasicBlock b : l.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				if (i.getDef() != null) written.add(i.getDef());
+				if (AvailableExpressions.writesMemory(i)) writesMemory = true;
+			}
+		}
+
+		//find the invariant instructions, in an order where each comes after the
+		//invariant instructions it reads
+		List<Instruction> invariant = new ArrayList<Instruction>();
+		Set<String> invariantDefs = new HashSet<String>();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock b : l.getBlocks()) {
+				List<Instruction> insts = b.getInstructions();
+				for (int j = 0; j < insts.size(); j++) {
+					Instruction i = insts.get(j);
+					if (invariantDefs.contains(i.getDef()) || !canMove(i, writesMemory)) continue;
+					boolean operandsInvariant = true;
+					for (String use : i.getUses()) {
+						if (written.contains(use) && !invariantDefs.contains(use)) {
+							operandsInvariant = false;
+							break;
+						}
+					}
+					if (!operandsInvariant) continue;
+					invariant.add(i);
+					invariantDefs.add(i.getDef());
+					insts.remove(j--);
+					changed = true;
+				}
+			}
+		}
+		if (invariant.isEmpty()) return 0;
+
+		List<Instruction> insts = pre.getInstructions();
+		int at = (pre.getTerminator() instanceof J) ? insts.size() - 1 : insts.size();
+		insts.addAll(at, invariant);
+		return invariant.size();
+	}
+
+	/**
+	 * @return true if i could be computed before the loop instead, given its
+	 *         operands are
+	 */
+	private boolean canMove(Instruction i, boolean loopWritesMemory) {
+		String def = i.getDef();
+		if (def == null || DataflowAnalysis.tempIndex(def) < 0 || numDefs.get(def) != 1) return false;
+		if (i instanceof Phi || i instanceof Div || AvailableExpressions.key(i) == null) return false;
+		if (i instanceof Lw || i instanceof Flw) {
+			return !loopWritesMemory && isSafeAddress(i.getSrc1());
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if base is fp, or a temp holding the address of a global or of
+	 *         a slot in the frame
+	 */
+	private boolean isSafeAddress(String base) {
+		if ("fp".equals(base)) return true;
+		Instruction d = defs.get(base);
+		if (d == null || numDefs.get(base) != 1) return false;
+		return d instanceof La || (d instanceof Addi && "fp".equals(d.getSrc1()));
+	}
+}
@@ -0,0 +1,206 @@
+package assembly.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.BasicBlock;
+import assembly.CodeGenerator;
+import assembly.ControlFlowGraph;
+import assembly.instructions.Addi;
+import assembly.instructions.FMv;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.Lw;
+import assembly.instructions.Mv;
+import assembly.instructions.Sw;
+import assembly.ssa.DominatorTree;
+import assembly.ssa.LoopForest;
+
+/**
+ * Keeps locals and arguments in temps instead of in their stack slots (mem2reg).
+ *
+ * Code generation reads a local with <code>ADDI t, fp, off</code> followed by a
+ * load from <code>0(t)</code>, and writes it with a store. If the address of a
+ * slot is only ever used to load from and store to that slot, nothing else can
+ * see the slot, and it can live in a temp: loads become copies from the temp and
+ * stores become copies to it. A promoted argument is loaded into its temp once,
+ * at the start of the function. An argument that is only read once, outside of
+ * any loop, is left where it is: loading it where it is needed costs no more than
+ * loading it up front, and keeps it out of a register in between.
+ *
+ * A slot whose address is used for anything else (it is stored, passed, or has
+ * arithmetic done on it: <code>&amp;x</code>) stays in memory, as does a slot that
+ * is read as both an int and a float. The temps are written more than once, so
+ * {@link assembly.ssa.SSAConstruction} should run next.
+ */
+public class PromoteLocals {
+
+	static final private int firstArgOffset = 12; //below that are the saved fp, ra and return value
+
+	private final ControlFlowGraph cfg;
+
+	public PromoteLocals(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+	}
+
+	/**
+	 * @return the number of slots promoted
+	 */
+	public int run() {
+		//find the temps that hold fp + offset. Code generation can put the same
+		//instruction in more than once, so a temp may be written several times with
+		//the same address; one that is also written with anything else is no address.
+		Map<String, Integer> addrTemps = new HashMap<String, Integer>(); //temp -> offset
+		Set<String> notAddrs = new HashSet<String>();
+		Set<Integer> escaped = new HashSet<Integer>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				String def = i.getDef();
+				if (def == null) continue;
+				Integer off = isAddress(i) ? offset(i.getSrc2()) : null;
+				Integer prev = addrTemps.get(def);
+				if (off == null || (prev != null && !prev.equals(off))) {
+					notAddrs.add(def);
+					if (off != null) escaped.add(off);
+				}
+				if (off != null) addrTemps.put(def, off);
+			}
+		}
+		for (String t : notAddrs) {
+			Integer off = addrTemps.remove(t);
+			if (off != null) escaped.add(off);
+		}
+
+		//work out which slots can be promoted, and whether they hold ints or floats
+		Map<Integer, Boolean> isFloat = new HashMap<Integer, Boolean>();
+		Set<String> usedOtherwise = new HashSet<String>(); //address temps used as values
+		Set<Integer> written = new HashSet<Integer>();
+		Map<Integer, Integer> numReads = new HashMap<Integer, Integer>(); //a read in a loop counts twice
+		LoopForest loops = new LoopForest(cfg, new DominatorTree(cfg));
+		for (BasicBlock b : cfg.getBlocks()) {
+			int weight = (loops.getDepth(b) > 0) ? 2 : 1;
+			for (Instruction i : b.getInstructions()) {
+				Integer slot = slot(i, addrTemps);
+				if (slot != null) {
+					if (storedValue(i) != null) {
+						written.add(slot);
+					} else {
+						numReads.put(slot, numReads.containsKey(slot) ? numReads.get(slot) + weight : weight);
+					}
+					boolean f = (i instanceof Flw || i instanceof Fsw);
+					Boolean prev = isFloat.put(slot, f);
+					if (prev != null && prev != f) escaped.add(slot);
+				}
+				for (String use : i.getUses()) {
+					if ("fp".equals(use) && slot == null && !isAddress(i)) return 0; //fp used some other way: give up
+					Integer off = addrTemps.get(use);
+					if (off == null) continue;
+					boolean asBase = slot != null && use.equals(i.getSrc1()) && !use.equals(storedValue(i));
+					if (!asBase) {
+						escaped.add(off);
+						usedOtherwise.add(use);
+					}
+				}
+			}
+		}
+
+		Map<Integer, String> temps = new HashMap<Integer, String>();
+		for (Map.Entry<Integer, Boolean> e : isFloat.entrySet()) {
+			int off = e.getKey();
+			if (escaped.contains(off) || (off > -4 && off < firstArgOffset)) continue;
+			if (off >= firstArgOffset && !written.contains(off) && numReads.get(off) < 2) continue; //as cheap to load where it is read
+			temps.put(off, cfg.newTemp(e.getValue() ? CodeGenerator.floatTempPrefix : CodeGenerator.intTempPrefix));
+		}
+		if (temps.isEmpty()) return 0;
+
+		//an address temp can go once every access through it is promoted
+		Set<String> deadAddrs = new HashSet<String>(addrTemps.keySet());
+		deadAddrs.removeAll(usedOtherwise);
+		Set<Integer> argsRead = new HashSet<Integer>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			for (int j = 0; j < insts.size(); j++) {
+				Instruction i = insts.get(j);
+				Integer slot = slot(i, addrTemps);
+				if (slot == null) continue;
+				String v = temps.get(slot);
+				if (v == null) {
+					deadAddrs.remove(i.getSrc1());
+					continue;
+				}
+				if (i instanceof Lw || i instanceof Flw) {
+					insts.set(j, copy(v, i.getDest()));
+					if (slot >= firstArgOffset) argsRead.add(slot);
+				} else {
+					insts.set(j, copy(i.getDest(), v));
+				}
+			}
+		}
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			List<Instruction> kept = new ArrayList<Instruction>(insts.size());
+			for (Instruction i : insts) {
+				if (isAddress(i) && deadAddrs.contains(i.getDest())) continue;
+				kept.add(i);
+			}
+			insts.clear();
+			insts.addAll(kept);
+		}
+
+		//arguments arrive in memory
+		List<Instruction> loads = new ArrayList<Instruction>();
+		for (int off : argsRead) {
+			String v = temps.get(off);
+			boolean f = v.charAt(0) == CodeGenerator.floatTempPrefix;
+			loads.add(f ? new Flw(v, "fp", String.valueOf(off)) : new Lw(v, "fp", String.valueOf(off)));
+		}
+		cfg.getEntry().getInstructions().addAll(0, loads);
+
+		return temps.size();
+	}
+
+	/**
+	 * @return the fp offset of the slot that i loads from or stores to, if it is
+	 *         a load or store based on fp or on a temp holding fp + offset
+	 */
+	private static Integer slot(Instruction i, Map<String, Integer> addrTemps) {
+		if (!(i instanceof Lw || i instanceof Flw || i instanceof Sw || i instanceof Fsw)) return null;
+		Integer k = offset(i.getLabel());
+		if (k == null) return null;
+		if ("fp".equals(i.getSrc1())) return k;
+		Integer off = addrTemps.get(i.getSrc1());
+		return (off == null) ? null : off + k;
+	}
+
+	/**
+	 * @return true for ADDI t, fp, offset
+	 */
+	private static boolean isAddress(Instruction i) {
+		return i instanceof Addi && "fp".equals(i.getSrc1()) && offset(i.getSrc2()) != null;
+	}
+
+	/**
+	 * @return the register a store writes to memory, or null
+	 */
+	private static String storedValue(Instruction i) {
+		return (i instanceof Sw || i instanceof Fsw) ? i.getDest() : null;
+	}
+
+	private static Instruction copy(String src, String dest) {
+		return (dest.charAt(0) == CodeGenerator.floatTempPrefix) ? new FMv(src, dest) : new Mv(src, dest);
+	}
+
+	private static Integer offset(String s) {
+		try {
+			return Integer.valueOf(s);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package assembly.opt;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.dataflow.DataflowAnalysis;
+import assembly.instructions.Addi;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.Lw;
+import assembly.instructions.Sw;
+
+/**
+ * Packs the slots of locals and spilled temps into as few slots as possible
+ * (stack slot coloring).
+ *
+ * Every local gets a slot of its own for the whole function, and so does every
+ * spilled temp, even though most of them hold a value for only part of the
+ * function, and promoted locals (and the variables of inlined functions) are not
+ * in memory at all any more. This runs on the body after register allocation:
+ * a slot is live from a store to it to the loads that read that store, and two
+ * slots that are never live at the same time share a slot. It is the register
+ * allocation problem over again, with no limit on the number of registers, so a
+ * greedy coloring of the interference graph does.
+ *
+ * A slot whose address is taken (<code>ADDI t, fp, off</code>) can be read or
+ * written through a pointer anywhere, so it keeps a slot to itself. If fp is
+ * used in any other way, nothing changes. Slots that nothing uses are dropped.
+ */
+public class StackSlotColoring {
+
+	/**
+	 * Which slots are live at the start and end of each block: a backward
+	 * may-problem over slot numbers, like {@link assembly.dataflow.Liveness}
+	 * over temps
+	 */
+	private class SlotLiveness extends DataflowAnalysis {
+
+		SlotLiveness(ControlFlowGraph cfg) {
+			super(cfg, false, true);
+		}
+
+		@Override
+		protected int numFacts() {
+			return numSlots;
+		}
+
+		@Override
+		protected void initBlock(BasicBlock b, BitSet gen, BitSet kill) {
+			List<Instruction> insts = b.getInstructions();
+			for (int j = insts.size() - 1; j >= 0; j--) {
+				Instruction i = insts.get(j);
+				int s = slot(i);
+				if (s < 0) continue;
+				if (isStore(i)) {
+					gen.clear(s);
+					kill.set(s);
+				} else {
+					gen.set(s);
+				}
+			}
+		}
+	}
+
+	private final ControlFlowGraph cfg;
+	private final int numSlots; //slots below fp, from -4 down: locals, then spills
+	private final BitSet addressTaken;
+
+	/**
+	 * @param cfg the control-flow graph of a function, after register allocation
+	 * @param numSlots the number of slots for its locals and spills
+	 */
+	public StackSlotColoring(ControlFlowGraph cfg, int numSlots) {
+		this.cfg = cfg;
+		this.numSlots = numSlots;
+		this.addressTaken = new BitSet();
+	}
+
+	/**
+	 * @return the number of slots the locals and spills need now
+	 */
+	public int run() {
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				for (String use : i.getUses()) {
+					if (!"fp".equals(use)) continue;
+					if (isAccess(i) && use.equals(i.getSrc1()) && !use.equals(i.getDest())) {
+						if (offset(i.getLabel()) == null) return numSlots;
+					} else if (i instanceof Addi && use.equals(i.getSrc1())) {
+						Integer off = offset(i.getSrc2());
+						if (off == null) return numSlots;
+						int s = slotAt(off);
+						if (s >= 0) addressTaken.set(s);
+					} else {
+						return numSlots; //fp used some other way: give up
+					}
+				}
+			}
+		}
+
+		SlotLiveness liveness = new SlotLiveness(cfg);
+		liveness.solve();
+
+		//two slots interfere if one is written while the other is live
+		List<BitSet> interference = new ArrayList<BitSet>(numSlots);
+		BitSet used = new BitSet();
+		for (int s = 0; s < numSlots; s++) {
+			interference.add(new BitSet());
+		}
+		for (BasicBlock b : cfg.getBlocks()) {
+			BitSet live = (BitSet) liveness.getOut(b).clone();
+			List<Instruction> insts = b.getInstructions();
+			for (int j = insts.size() - 1; j >= 0; j--) {
+				Instruction i = insts.get(j);
+				int s = slot(i);
+				if (s < 0) continue;
+				used.set(s);
+				if (isStore(i)) {
+					live.clear(s);
+					interference.get(s).or(live);
+					for (int t = live.nextSetBit(0); t >= 0; t = live.nextSetBit(t + 1)) {
+						interference.get(t).set(s);
+					}
+				} else {
+					live.set(s);
+				}
+			}
+		}
+
+		//a slot whose address is taken keeps a color to itself
+		int[] color = new int[numSlots];
+		int numColors = 0;
+		for (int s = 0; s < numSlots; s++) {
+			color[s] = addressTaken.get(s) ? numColors++ : -1;
+		}
+		int numFixed = numColors;
+		for (int s = used.nextSetBit(0); s >= 0; s = used.nextSetBit(s + 1)) {
+			BitSet taken = new BitSet();
+			BitSet neighbors = interference.get(s);
+			for (int t = neighbors.nextSetBit(0); t >= 0; t = neighbors.nextSetBit(t + 1)) {
+				if (color[t] >= 0) taken.set(color[t]);
+			}
+			color[s] = taken.nextClearBit(numFixed);
+			numColors = Math.max(numColors, color[s] + 1);
+		}
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			for (int j = 0; j < insts.size(); j++) {
+				Instruction i = insts.get(j);
+				if (isAccess(i) && "fp".equals(i.getSrc1())) {
+					int s = slotAt(offset(i.getLabel()));
+					if (s >= 0) insts.set(j, move(i, color[s]));
+				} else if (i instanceof Addi && "fp".equals(i.getSrc1())) {
+					int s = slotAt(offset(i.getSrc2()));
+					if (s >= 0) insts.set(j, new Addi("fp", String.valueOf(-4 * (color[s] + 1)), i.getDest()));
+				}
+			}
+		}
+		return numColors;
+	}
+
+	/**
+	 * @return i, accessing the slot with the given color instead
+	 */
+	private static Instruction move(Instruction i, int color) {
+		String offset = String.valueOf(-4 * (color + 1));
+		if (i instanceof Lw) return new Lw(i.getDest(), "fp", offset);
+		if (i instanceof Flw) return new Flw(i.getDest(), "fp", offset);
+		if (i instanceof Sw) return new Sw(i.getDest(), "fp", offset);
+		return new Fsw(i.getDest(), "fp", offset);
+	}
+
+	/**
+	 * @return the slot that i loads from or stores to directly, if it is one
+	 *         whose address is never taken, or -1
+	 */
+	private int slot(Instruction i) {
+		if (!isAccess(i) || !"fp".equals(i.getSrc1())) return -1;
+		int s = slotAt(offset(i.getLabel()));
+		return (s >= 0 && !addressTaken.get(s)) ? s : -1;
+	}
+
+	/**
+	 * @return the number of the slot at fp + off, or -1 if it is not a slot for
+	 *         locals or spills
+	 */
+	private int slotAt(int off) {
+		if (off > -4 || off % 4 != 0) return -1;
+		int s = -off / 4 - 1;
+		return (s < numSlots) ? s : -1;
+	}
+
+	private static boolean isAccess(Instruction i) {
+		return i instanceof Lw || i instanceof Flw || isStore(i);
+	}
+
+	private static boolean isStore(Instruction i) {
+		return i instanceof Sw || i instanceof Fsw;
+	}
+
+	private static Integer offset(String s) {
+		try {
+			return Integer.valueOf(s);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package assembly.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.BasicBlock;
+import assembly.CodeGenerator;
+import assembly.ControlFlowGraph;
+import assembly.instructions.Add;
+import assembly.instructions.Addi;
+import assembly.instructions.Instruction;
+import assembly.instructions.J;
+import assembly.instructions.Li;
+import assembly.instructions.Mul;
+import assembly.instructions.Mv;
+import assembly.instructions.Phi;
+import assembly.instructions.Sub;
+import assembly.ssa.DominatorTree;
+import assembly.ssa.LoopForest;
+
+/**
+ * Replaces multiplications by induction variables with additions
+ * (strength reduction).
+ *
+ * Array indexing turns <code>a[i]</code> into <code>*(a + i * 4)</code>, so a
+ * loop walking an array multiplies on every trip. An induction variable is a
+ * phi in a loop header that the loop adds the same constant to on every trip:
+ * <code>i = phi(i0, i + s)</code>. Then <code>i * c</code>, for a constant c
+ * that the loop does not change, is an induction variable too, starting at
+ * <code>i0 * c</code> and going up by <code>s * c</code>. It gets a phi of its
+ * own, the multiplication becomes a copy of that phi, and the only work left on
+ * each trip is an ADDI. Adding something the loop does not change to one of
+ * these new induction variables (<code>a + i * 4</code>) makes another, so the
+ * address itself is bumped along and the multiplied index dies.
+ *
+ * This runs in SSA form, on loops that have a preheader (see
+ * {@link LoopInvariantCodeMotion}) and one back edge. The old induction
+ * variable stays if the loop still tests it.
+ */
+public class StrengthReduction {
+
+	/**
+	 * A phi in a loop header that goes up by a constant on every trip
+	 */
+	private static class InductionVariable {
+		final String init; //value on entry to the loop
+		final int stride;
+		final Instruction update; //writes the value for the next trip
+		final BasicBlock updateBlock;
+		final boolean reduced; //made by this pass
+
+		InductionVariable(String init, int stride, Instruction update, BasicBlock updateBlock, boolean reduced) {
+			this.init = init;
+			this.stride = stride;
+			this.update = update;
+			this.updateBlock = updateBlock;
+			this.reduced = reduced;
+		}
+	}
+
+	private final ControlFlowGraph cfg;
+	private final Map<String, Instruction> defs;
+	private final Map<String, BasicBlock> defBlocks;
+
+	public StrengthReduction(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		this.defs = new HashMap<String, Instruction>();
+		this.defBlocks = new HashMap<String, BasicBlock>();
+	}
+
+	/**
+	 * @return the number of instructions replaced
+	 */
+	public int run() {
+		LoopForest loops = new LoopForest(cfg, new DominatorTree(cfg));
+		if (loops.getLoops().isEmpty()) return 0;
+
+		Set<String> multiplyDefined = new HashSet<String>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				String def = i.getDef();
+				if (def == null) continue;
+				if (defs.put(def, i) != null) multiplyDefined.add(def);
+				defBlocks.put(def, b);
+			}
+		}
+		for (String r : multiplyDefined) {
+			defs.remove(r);
+		}
+
+		int replaced = 0;
+		for (LoopForest.Loop l : loops.getLoops()) {
+			replaced += reduce(l);
+		}
+		return replaced;
+	}
+
+	private int reduce(LoopForest.Loop l) {
+		BasicBlock header = l.getHeader();
+		if (l.getLatches().size() != 1 || header.getPredecessors().size() != 2) return 0;
+		BasicBlock latch = l.getLatches().get(0);
+		BasicBlock pre = null;
+		for (BasicBlock p : header.getPredecessors()) {
+			if (p != latch) pre = p;
+		}
+		if (pre.getSuccessors().size() != 1) return 0;
+
+		Set<String> written = new HashSet<String>();
+		for (BasicBlock b : l.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				if (i.getDef() != null) written.add(i.getDef());
+			}
+		}
+
+		//the induction variables we start from
+		Map<String, InductionVariable> ivs = new HashMap<String, InductionVariable>();
+		for (Instruction i : header.getInstructions()) {
+			if (!(i instanceof Phi)) break;
+			Phi phi = (Phi) i;
+			String x = phi.getDef();
+			String next = phi.getArg(latch);
+			Instruction u = (next == null) ? null : defs.get(next);
+			if (u == null || phi.getArg(pre) == null || !defs.containsKey(x) || !l.contains(defBlocks.get(next))) continue;
+			Integer stride = stride(u, x);
+			if (stride != null) {
+				ivs.put(x, new InductionVariable(phi.getArg(pre), stride, u, defBlocks.get(next), false));
+			}
+		}
+		if (ivs.isEmpty()) return 0;
+
+		List<Instruction> preCode = new ArrayList<Instruction>();
+		List<Instruction> phis = new ArrayList<Instruction>();
+		int replaced = 0;
+		for (BasicBlock b : l.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			for (int j = 0; j < insts.size(); j++) {
+				Instruction i = insts.get(j);
+				String def = i.getDef();
+				if (def == null || defs.get(def) != i) continue;
+				String a = i.getSrc1();
+				String c = i.getSrc2();
+				if (!ivs.containsKey(a)) {
+					a = i.getSrc2();
+					c = i.getSrc1();
+				}
+				InductionVariable iv = ivs.get(a);
+				if (iv == null || written.contains(c)) continue;
+
+				boolean isMul = i instanceof Mul && constant(c) != null;
+				if (!isMul && !(i instanceof Add && iv.reduced)) continue;
+				String init = cfg.newTemp(CodeGenerator.intTempPrefix);
+				int stride;
+				if (isMul) {
+					preCode.add(new Mul(iv.init, c, init));
+					stride = iv.stride * constant(c);
+				} else {
+					preCode.add(new Add(iv.init, c, init));
+					stride = iv.stride;
+				}
+
+				//a new induction variable, bumped right after the one it comes from
+				String x = cfg.newTemp(CodeGenerator.intTempPrefix);
+				String next = cfg.newTemp(CodeGenerator.intTempPrefix);
+				Phi phi = new Phi(x);
+				phi.setArg(pre, init);
+				phi.setArg(latch, next);
+				phis.add(phi);
+				Instruction update = new Addi(x, String.valueOf(stride), next);
+				List<Instruction> updateInsts = iv.updateBlock.getInstructions();
+				int at = indexOf(updateInsts, iv.update) + 1;
+				updateInsts.add(at, update);
+				if (iv.updateBlock == b && at <= j) j++;
+				InductionVariable reduced = new InductionVariable(init, stride, update, iv.updateBlock, true);
+				ivs.put(x, reduced);
+				ivs.put(def, reduced); //def is about to be a copy of x
+
+				insts.set(j, new Mv(x, def)); //value numbering folds the copy away
+				replaced++;
+			}
+		}
+		if (replaced == 0) return 0;
+
+		header.getInstructions().addAll(0, phis);
+		List<Instruction> insts = pre.getInstructions();
+		int at = (pre.getTerminator() instanceof J) ? insts.size() - 1 : insts.size();
+		insts.addAll(at, preCode);
+		return replaced;
+	}
+
+	/**
+	 * @return how much u adds to x, if it is x plus a constant
+	 */
+	private Integer stride(Instruction u, String x) {
+		if (u instanceof Addi && x.equals(u.getSrc1())) {
+			return parseInt(u.getSrc2());
+		}
+		if (u instanceof Add && x.equals(u.getSrc1())) return constant(u.getSrc2());
+		if (u instanceof Add && x.equals(u.getSrc2())) return constant(u.getSrc1());
+		if (u instanceof Sub && x.equals(u.getSrc1())) {
+			Integer c = constant(u.getSrc2());
+			return (c == null) ? null : -c;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the value of r, if it is written once, by an LI
+	 */
+	private Integer constant(String r) {
+		Instruction d = (r == null) ? null : defs.get(r);
+		return (d instanceof Li) ? parseInt(d.getLabel()) : null;
+	}
+
+	private static Integer parseInt(String s) {
+		try {
+			return Integer.valueOf(s);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static int indexOf(List<Instruction> insts, Instruction i) {
+		for (int j = 0; j < insts.size(); j++) {
+			if (insts.get(j) == i) return j;
+		}
+		return -1;
+	}
+}
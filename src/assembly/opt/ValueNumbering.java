@@ -0,0 +1,235 @@
+package assembly.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.dataflow.AvailableExpressions;
+import assembly.dataflow.DataflowAnalysis;
+import assembly.instructions.Add;
+import assembly.instructions.FAdd;
+import assembly.instructions.FMul;
+import assembly.instructions.FMv;
+import assembly.instructions.Feq;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.Lw;
+import assembly.instructions.Mul;
+import assembly.instructions.Mv;
+import assembly.instructions.Sw;
+import assembly.ssa.SSADestruction;
+
+/**
+ * Local value numbering: finds instructions that compute something already
+ * computed earlier in the same block, and reuses the earlier result.
+ *
+ * Array indexing reloads the index and recomputes the address every time, so
+ * <code>a[i] = a[i] + 1</code> computes <code>a + i * 4</code> twice. Within a
+ * block, each computation (arithmetic, immediates, LA, and loads) is looked up
+ * by its opcode and operands; if the same thing is already in a register, the
+ * instruction goes and its result is read from that register instead. Copies
+ * are followed, so two loads of a promoted variable give the same value, and
+ * the operands of commutative instructions are put in a fixed order.
+ *
+ * Loads are forgotten at every store and call, since we do not know what they
+ * write. A store does tell us what is at its address, though, so a load from
+ * the same address right after it reuses the stored register.
+ *
+ * This is meant to run in SSA form, where a temp written once holds the same
+ * value everywhere: then a redundant instruction is removed and its temp
+ * renamed everywhere. A register written more than once (sp, or anything when
+ * not in SSA form) just gets a copy, and everything computed from it is
+ * forgotten when it is written again.
+ */
+public class ValueNumbering {
+
+	/**
+	 * A computation we know the result of
+	 */
+	private static class Value {
+		final String reg;
+		final String[] operands;
+
+		Value(String reg, String... operands) {
+			this.reg = reg;
+			this.operands = operands;
+		}
+
+		boolean mentions(String r) {
+			if (r.equals(reg)) return true;
+			for (String o : operands) {
+				if (r.equals(o)) return true;
+			}
+			return false;
+		}
+	}
+
+	private final ControlFlowGraph cfg;
+	private final Map<String, Integer> numDefs;
+	private final Map<String, String> renamed; //removed temp -> the temp with its value
+	private int numRemoved;
+
+	public ValueNumbering(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		this.numDefs = new HashMap<String, Integer>();
+		this.renamed = new HashMap<String, String>();
+		this.numRemoved = 0;
+	}
+
+	/**
+	 * @return the number of instructions removed or turned into copies
+	 */
+	public int run() {
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				String def = i.getDef();
+				if (def != null) numDefs.put(def, numDefs.containsKey(def) ? numDefs.get(def) + 1 : 1);
+			}
+		}
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			numberBlock(b);
+		}
+
+		//uses in blocks numbered before the defs were removed
+		if (!renamed.isEmpty()) {
+			for (BasicBlock b : cfg.getBlocks()) {
+				List<Instruction> insts = b.getInstructions();
+				for (int j = 0; j < insts.size(); j++) {
+					insts.set(j, rename(insts.get(j)));
+				}
+			}
+		}
+		return numRemoved;
+	}
+
+	private void numberBlock(BasicBlock b) {
+		Map<String, Value> values = new HashMap<String, Value>(); //key -> register holding it
+		List<Instruction> insts = b.getInstructions();
+		List<Instruction> kept = new ArrayList<Instruction>(insts.size());
+		for (Instruction i : insts) {
+			i = rename(i);
+			String def = i.getDef();
+
+			//follow copies between temps
+			if ((i instanceof Mv || i instanceof FMv) && isSSATemp(def) && isSSATemp(i.getSrc1())) {
+				renamed.put(def, i.getSrc1());
+				numRemoved++;
+				continue;
+			}
+
+			String key = key(i);
+			Value v = (key == null) ? null : values.get(key);
+			if (v != null) {
+				numRemoved++;
+				if (isSSATemp(def)) {
+					renamed.put(def, v.reg);
+					continue;
+				}
+				if (v.reg.equals(def)) continue; //it is still there
+				i = SSADestruction.copy(v.reg, def);
+			}
+
+			if (AvailableExpressions.writesMemory(i)) {
+				forgetLoads(values);
+			}
+			if (def != null && !isSSATemp(def)) {
+				forget(values, def);
+			}
+
+			if (v == null && key != null && !i.getUses().contains(def)) {
+				values.put(key, new Value(def, i.getSrc1(), i.getSrc2()));
+			}
+			if (i instanceof Sw || i instanceof Fsw) {
+				//what was just stored is what a load from there would give
+				String stored = i.getDest();
+				values.put(loadKey(i instanceof Fsw, i.getSrc1(), i.getLabel()), new Value(stored, i.getSrc1()));
+			}
+			kept.add(i);
+		}
+		insts.clear();
+		insts.addAll(kept);
+	}
+
+	/**
+	 * @return i, or a copy of it that reads the temps that removed temps were
+	 *         renamed to
+	 */
+	private Instruction rename(Instruction i) {
+		Map<String, String> names = null;
+		for (String use : i.getUses()) {
+			if (!renamed.containsKey(use)) continue;
+			if (names == null) names = new HashMap<String, String>();
+			names.put(use, resolve(use));
+		}
+		if (names == null) return i;
+		Instruction c = i.copy();
+		c.renameUses(names);
+		return c;
+	}
+
+	private String resolve(String t) {
+		String r = renamed.get(t);
+		while (r != null) {
+			t = r;
+			r = renamed.get(t);
+		}
+		return t;
+	}
+
+	/**
+	 * @return true for temps that are written exactly once
+	 */
+	private boolean isSSATemp(String r) {
+		if (r == null || DataflowAnalysis.tempIndex(r) < 0) return false;
+		Integer n = numDefs.get(r);
+		return n != null && n == 1;
+	}
+
+	private static void forgetLoads(Map<String, Value> values) {
+		Iterator<String> it = values.keySet().iterator();
+		while (it.hasNext()) {
+			String k = it.next();
+			if (k.startsWith("Lw ") || k.startsWith("Flw ")) it.remove();
+		}
+	}
+
+	/**
+	 * Forget everything that involves r, which has just been overwritten
+	 */
+	private static void forget(Map<String, Value> values, String r) {
+		Iterator<Value> it = values.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().mentions(r)) it.remove();
+		}
+	}
+
+	/**
+	 * @return the same key for instructions that compute the same value from the
+	 *         same registers, or null if i is not worth numbering
+	 */
+	private static String key(Instruction i) {
+		if (AvailableExpressions.key(i) == null) return null;
+		if (i instanceof Lw || i instanceof Flw) {
+			return loadKey(i instanceof Flw, i.getSrc1(), i.getLabel());
+		}
+		String a = i.getSrc1();
+		String b = i.getSrc2();
+		boolean commutes = i instanceof Add || i instanceof Mul || i instanceof FAdd || i instanceof FMul || i instanceof Feq;
+		if (commutes && a != null && b != null && a.compareTo(b) > 0) {
+			String t = a;
+			a = b;
+			b = t;
+		}
+		return i.getClass().getSimpleName() + " " + a + " " + b + " " + i.getLabel();
+	}
+
+	private static String loadKey(boolean isFloat, String base, String offset) {
+		return (isFloat ? "Flw " : "Lw ") + base + " " + offset;
+	}
+}
@@ -0,0 +1,63 @@
+package assembly.peephole;
+
+import assembly.instructions.Addi;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionLS;
+import assembly.instructions.Lw;
+import assembly.instructions.Sw;
+
+/**
+ * An address computed just for the following load or store goes into the
+ * load's offset instead:
+ *
+ * <pre>
+ * ADDI t1, fp, -8
+ * LW t2, 0(t1)         becomes      LW t2, -8(fp)
+ * </pre>
+ *
+ * This only happens if nothing reads the address register afterwards.
+ */
+public class FoldAddressRule extends PeepholeRule {
+
+	@Override
+	public String getName() {
+		return "fold-address";
+	}
+
+	@Override
+	public boolean apply(Instruction[] code, int i) {
+		Instruction addi = code[i];
+		if (!(addi instanceof Addi)) return false;
+		String addr = addi.getDest();
+		String base = addi.getSrc1();
+		Integer off = immediate(addi.getSrc2());
+		if (off == null || addr.equals(base)) return false;
+
+		int n = next(code, i);
+		if (n < 0 || !(code[n] instanceof InstructionLS)) return false;
+		Instruction ls = code[n];
+		Integer lsOff = immediate(ls.getLabel());
+		if (lsOff == null || !addr.equals(ls.getSrc1())) return false;
+
+		boolean isStore = ls instanceof Sw || ls instanceof Fsw;
+		if (isStore && addr.equals(ls.getDest())) return false; //storing the address itself
+
+		//a load into the address register kills it anyway
+		boolean overwritten = !isStore && addr.equals(ls.getDest());
+		if (!overwritten && !isDeadAfter(code, n, addr)) return false;
+
+		String newOff = String.valueOf(off + lsOff);
+		Instruction folded;
+		if (ls instanceof Lw) folded = new Lw(ls.getDest(), base, newOff);
+		else if (ls instanceof Flw) folded = new Flw(ls.getDest(), base, newOff);
+		else if (ls instanceof Sw) folded = new Sw(ls.getDest(), base, newOff);
+		else if (ls instanceof Fsw) folded = new Fsw(ls.getDest(), base, newOff);
+		else return false;
+
+		code[i] = null;
+		code[n] = folded;
+		return true;
+	}
+}
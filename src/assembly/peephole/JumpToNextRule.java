@@ -0,0 +1,37 @@
+package assembly.peephole;
+
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionBranch;
+import assembly.instructions.J;
+import assembly.instructions.Label;
+
+/**
+ * A jump (or branch) to a label that immediately follows it does nothing:
+ *
+ * <pre>
+ *     J func_ret_main
+ * func_ret_main:
+ * </pre>
+ */
+public class JumpToNextRule extends PeepholeRule {
+
+	@Override
+	public String getName() {
+		return "jump-to-next";
+	}
+
+	@Override
+	public boolean apply(Instruction[] code, int i) {
+		Instruction jump = code[i];
+		if (!(jump instanceof J || jump instanceof InstructionBranch)) return false;
+
+		//the target can be any of a run of labels
+		for (int j = next(code, i); j >= 0 && code[j] instanceof Label; j = next(code, j)) {
+			if (code[j].getLabel().equals(jump.getLabel())) {
+				code[i] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,50 @@
+package assembly.peephole;
+
+import assembly.instructions.Addi;
+import assembly.instructions.Instruction;
+
+/**
+ * Adjustments of the same register in a row are combined, and adjustments by
+ * zero are dropped:
+ *
+ * <pre>
+ * ADDI sp, sp, -4
+ * ADDI sp, sp, -4      becomes      ADDI sp, sp, -8
+ * </pre>
+ */
+public class MergeAddiRule extends PeepholeRule {
+
+	@Override
+	public String getName() {
+		return "merge-addi";
+	}
+
+	@Override
+	public boolean apply(Instruction[] code, int i) {
+		if (!isAdjustment(code[i])) return false;
+		Integer first = immediate(code[i].getSrc2());
+		if (first == null) return false;
+
+		if (first == 0) {
+			code[i] = null;
+			return true;
+		}
+
+		int n = next(code, i);
+		if (n < 0 || !isAdjustment(code[n]) || !code[n].getDest().equals(code[i].getDest())) return false;
+		Integer second = immediate(code[n].getSrc2());
+		if (second == null) return false;
+
+		String reg = code[i].getDest();
+		code[i] = null;
+		code[n] = new Addi(reg, String.valueOf(first + second), reg);
+		return true;
+	}
+
+	/**
+	 * @return true for ADDI r, r, imm
+	 */
+	private boolean isAdjustment(Instruction i) {
+		return i instanceof Addi && i.getDest().equals(i.getSrc1());
+	}
+}
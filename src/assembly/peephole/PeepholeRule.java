@@ -0,0 +1,77 @@
+package assembly.peephole;
+
+import assembly.instructions.Halt;
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionBranch;
+import assembly.instructions.J;
+import assembly.instructions.Ret;
+
+/**
+ * A rewrite rule for the {@link assembly.PeepholeOptimizer}.
+ *
+ * Rules work on an array of instructions. A rule deletes an instruction by setting
+ * its slot to null, and replaces one by storing a new instruction in its slot;
+ * instructions must never be changed in place, since code generation can share an
+ * instruction object between several places in the code.
+ */
+public abstract class PeepholeRule {
+
+	/**
+	 * @return a short name for the rule, used to report how often it fired
+	 */
+	public abstract String getName();
+
+	/**
+	 * Try to apply the rule to the instructions starting at <code>code[i]</code>,
+	 * which is not null.
+	 *
+	 * @return true if the code was changed
+	 */
+	public abstract boolean apply(Instruction[] code, int i);
+
+	/**
+	 * How far {@link #isDeadAfter} looks before giving up
+	 */
+	static final private int lookahead = 64;
+
+	/**
+	 * @return index of the first instruction after <code>i</code> that has not been
+	 *         deleted, or -1
+	 */
+	protected static int next(Instruction[] code, int i) {
+		for (int j = i + 1; j < code.length; j++) {
+			if (code[j] != null) return j;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if <code>reg</code> is certainly overwritten before it is read
+	 *         again, looking along the straight-line code after <code>code[i]</code>.
+	 *         Calls do not count as reads: the callee saves what it uses, and does
+	 *         not look at our registers.
+	 */
+	protected static boolean isDeadAfter(Instruction[] code, int i, String reg) {
+		int j = i;
+		for (int steps = 0; steps < lookahead; steps++) {
+			j = next(code, j);
+			if (j < 0) return false;
+			Instruction x = code[j];
+			if (x.getUses().contains(reg)) return false;
+			if (reg.equals(x.getDef())) return true;
+			if (x instanceof J || x instanceof InstructionBranch || x instanceof Ret || x instanceof Halt) return false;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the integer value of an immediate, or null if it is not a number
+	 */
+	protected static Integer immediate(String s) {
+		try {
+			return Integer.valueOf(s);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
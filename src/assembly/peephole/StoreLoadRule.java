@@ -0,0 +1,64 @@
+package assembly.peephole;
+
+import assembly.instructions.FMv;
+import assembly.instructions.Flw;
+import assembly.instructions.Fsw;
+import assembly.instructions.Instruction;
+import assembly.instructions.Lw;
+import assembly.instructions.Mv;
+import assembly.instructions.Sw;
+
+/**
+ * A load right after a store to the same slot reads back the value just stored,
+ * and a store right after a load from the same slot writes back the value that
+ * is already there:
+ *
+ * <pre>
+ * SW t1, -8(fp)                     SW t1, -8(fp)
+ * LW t2, -8(fp)        becomes      MV t2, t1
+ *
+ * LW t1, -8(fp)
+ * SW t1, -8(fp)        becomes      LW t1, -8(fp)
+ * </pre>
+ */
+public class StoreLoadRule extends PeepholeRule {
+
+	@Override
+	public String getName() {
+		return "store-load";
+	}
+
+	@Override
+	public boolean apply(Instruction[] code, int i) {
+		Instruction first = code[i];
+		int n = next(code, i);
+		if (n < 0) return false;
+		Instruction second = code[n];
+		if (!sameSlot(first, second)) return false;
+
+		if ((first instanceof Sw && second instanceof Lw) || (first instanceof Fsw && second instanceof Flw)) {
+			String value = first.getDest();
+			String dest = second.getDest();
+			if (dest.equals(value)) {
+				code[n] = null;
+			} else {
+				code[n] = (first instanceof Sw) ? new Mv(value, dest) : new FMv(value, dest);
+			}
+			return true;
+		}
+
+		if ((first instanceof Lw && second instanceof Sw) || (first instanceof Flw && second instanceof Fsw)) {
+			//if the load overwrote the base register, the store goes somewhere else
+			if (first.getDest().equals(second.getDest()) && !first.getDest().equals(first.getSrc1())) {
+				code[n] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean sameSlot(Instruction a, Instruction b) {
+		if (a.getSrc1() == null || a.getLabel() == null) return false;
+		return a.getSrc1().equals(b.getSrc1()) && a.getLabel().equals(b.getLabel());
+	}
+}
@@ -0,0 +1,143 @@
+package assembly.ssa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+
+/**
+ * The dominator tree and dominance frontiers of a {@link ControlFlowGraph}.
+ *
+ * Immediate dominators are found with the iterative algorithm of Cooper, Harvey
+ * and Kennedy ("A Simple, Fast Dominance Algorithm"), which walks the blocks in
+ * reverse postorder and intersects the dominators of the predecessors. Blocks
+ * that cannot be reached from the entry are not in the tree.
+ *
+ * The tree is a snapshot: build a new one after changing the edges.
+ */
+public class DominatorTree {
+
+	private final ControlFlowGraph cfg;
+	private final List<BasicBlock> rpo;
+	private final int[] rpoNumber; //by block id, -1 if unreachable
+	private final BasicBlock[] idom; //by block id
+	private final List<List<BasicBlock>> children; //by block id
+	private List<List<BasicBlock>> frontiers; //by block id, null until needed
+
+	public DominatorTree(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		this.rpo = cfg.reversePostorder();
+		int n = cfg.getNumBlockIds();
+		this.rpoNumber = new int[n];
+		this.idom = new BasicBlock[n];
+		this.children = new ArrayList<List<BasicBlock>>(n);
+		for (int i = 0; i < n; i++) {
+			rpoNumber[i] = -1;
+			children.add(new ArrayList<BasicBlock>());
+		}
+		for (int i = 0; i < rpo.size(); i++) {
+			rpoNumber[rpo.get(i).getId()] = i;
+		}
+
+		BasicBlock entry = cfg.getEntry();
+		idom[entry.getId()] = entry;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock b : rpo) {
+				if (b == entry) continue;
+				BasicBlock newIdom = null;
+				for (BasicBlock p : b.getPredecessors()) {
+					if (idom[p.getId()] == null) continue; //not processed yet, or unreachable
+					newIdom = (newIdom == null) ? p : intersect(p, newIdom);
+				}
+				if (idom[b.getId()] != newIdom) {
+					idom[b.getId()] = newIdom;
+					changed = true;
+				}
+			}
+		}
+
+		for (BasicBlock b : rpo) {
+			if (b != entry) children.get(idom[b.getId()].getId()).add(b);
+		}
+	}
+
+	private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+		while (a != b) {
+			while (rpoNumber[a.getId()] > rpoNumber[b.getId()]) a = idom[a.getId()];
+			while (rpoNumber[b.getId()] > rpoNumber[a.getId()]) b = idom[b.getId()];
+		}
+		return a;
+	}
+
+	/**
+	 * @return the reachable blocks in reverse postorder, so that every block comes
+	 *         after its immediate dominator
+	 */
+	public List<BasicBlock> getBlocks() {
+		return rpo;
+	}
+
+	public boolean isReachable(BasicBlock b) {
+		return rpoNumber[b.getId()] >= 0;
+	}
+
+	/**
+	 * @return the immediate dominator of b, or null for the entry
+	 */
+	public BasicBlock getIdom(BasicBlock b) {
+		return (b == cfg.getEntry()) ? null : idom[b.getId()];
+	}
+
+	/**
+	 * @return the blocks that b immediately dominates
+	 */
+	public List<BasicBlock> getChildren(BasicBlock b) {
+		return children.get(b.getId());
+	}
+
+	/**
+	 * @return true if every path from the entry to b goes through a
+	 */
+	public boolean dominates(BasicBlock a, BasicBlock b) {
+		if (!isReachable(a) || !isReachable(b)) return false;
+		//idoms always have lower reverse postorder numbers, so walk up until we pass a
+		while (rpoNumber[b.getId()] > rpoNumber[a.getId()]) {
+			b = idom[b.getId()];
+		}
+		return a == b;
+	}
+
+	/**
+	 * @return the dominance frontier of b: the blocks where b's dominance ends
+	 */
+	public List<BasicBlock> getFrontier(BasicBlock b) {
+		if (frontiers == null) computeFrontiers();
+		return frontiers.get(b.getId());
+	}
+
+	/**
+	 * For every join point, walk up from each predecessor to the join's
+	 * immediate dominator; the join is in the frontier of every block passed
+	 */
+	private void computeFrontiers() {
+		frontiers = new ArrayList<List<BasicBlock>>(cfg.getNumBlockIds());
+		for (int i = 0; i < cfg.getNumBlockIds(); i++) {
+			frontiers.add(new ArrayList<BasicBlock>());
+		}
+		for (BasicBlock b : rpo) {
+			if (b.getPredecessors().size() < 2) continue;
+			for (BasicBlock p : b.getPredecessors()) {
+				if (!isReachable(p)) continue;
+				BasicBlock runner = p;
+				while (runner != idom[b.getId()]) {
+					List<BasicBlock> f = frontiers.get(runner.getId());
+					if (f.isEmpty() || f.get(f.size() - 1) != b) f.add(b);
+					runner = idom[runner.getId()];
+				}
+			}
+		}
+	}
+}
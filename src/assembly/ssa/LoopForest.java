@@ -0,0 +1,170 @@
+package assembly.ssa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+
+/**
+ * The natural loops of a function.
+ *
+ * An edge from t to h where h dominates t is a back edge, and h is the header of
+ * a loop. The body of the loop is h plus every block that can reach t without
+ * going through h. Back edges to the same header make one loop. The code
+ * generator only makes structured loops, so every cycle in the graph is found
+ * this way.
+ *
+ * Loops are nested by their bodies: a loop's parent is the smallest loop that
+ * contains its header.
+ */
+public class LoopForest {
+
+	public static class Loop {
+		final BasicBlock header;
+		final List<BasicBlock> latches; //sources of the back edges
+		final BitSet body; //block ids
+		final List<BasicBlock> blocks;
+		Loop parent;
+		int depth;
+
+		Loop(BasicBlock header) {
+			this.header = header;
+			this.latches = new ArrayList<BasicBlock>();
+			this.body = new BitSet();
+			this.blocks = new ArrayList<BasicBlock>();
+		}
+
+		public BasicBlock getHeader() {
+			return header;
+		}
+
+		public List<BasicBlock> getLatches() {
+			return latches;
+		}
+
+		/**
+		 * @return the blocks of the loop, header first, in reverse postorder
+		 */
+		public List<BasicBlock> getBlocks() {
+			return blocks;
+		}
+
+		public boolean contains(BasicBlock b) {
+			return body.get(b.getId());
+		}
+
+		/**
+		 * @return the innermost loop around this one, or null
+		 */
+		public Loop getParent() {
+			return parent;
+		}
+
+		/**
+		 * @return 1 for an outermost loop, 2 for a loop inside it, and so on
+		 */
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	private final List<Loop> loops; //innermost first
+	private final Loop[] innermost; //by block id
+
+	public LoopForest(ControlFlowGraph cfg, DominatorTree dom) {
+		this.loops = new ArrayList<Loop>();
+		this.innermost = new Loop[cfg.getNumBlockIds()];
+
+		Loop[] byHeader = new Loop[cfg.getNumBlockIds()];
+		for (BasicBlock t : dom.getBlocks()) {
+			for (BasicBlock h : t.getSuccessors()) {
+				if (!dom.dominates(h, t)) continue;
+				Loop l = byHeader[h.getId()];
+				if (l == null) {
+					l = new Loop(h);
+					l.body.set(h.getId());
+					byHeader[h.getId()] = l;
+					loops.add(l);
+				}
+				l.latches.add(t);
+
+				//walk backwards from the latch until we hit the header
+				ArrayDeque<BasicBlock> work = new ArrayDeque<BasicBlock>();
+				if (!l.body.get(t.getId())) {
+					l.body.set(t.getId());
+					work.add(t);
+				}
+				while (!work.isEmpty()) {
+					BasicBlock b = work.poll();
+					for (BasicBlock p : b.getPredecessors()) {
+						if (dom.isReachable(p) && !l.body.get(p.getId())) {
+							l.body.set(p.getId());
+							work.add(p);
+						}
+					}
+				}
+			}
+		}
+
+		for (BasicBlock b : dom.getBlocks()) {
+			for (Loop l : loops) {
+				if (l.body.get(b.getId())) l.blocks.add(b);
+			}
+		}
+
+		//smaller loops are nested inside bigger ones
+		Collections.sort(loops, new Comparator<Loop>() {
+			public int compare(Loop a, Loop b) {
+				return Integer.compare(a.body.cardinality(), b.body.cardinality());
+			}
+		});
+		for (int i = 0; i < loops.size(); i++) {
+			Loop l = loops.get(i);
+			for (int j = i + 1; j < loops.size(); j++) {
+				Loop outer = loops.get(j);
+				if (outer != l && outer.body.get(l.header.getId())) {
+					l.parent = outer;
+					break;
+				}
+			}
+		}
+		for (Loop l : loops) {
+			int d = 0;
+			for (Loop p = l; p != null; p = p.parent) d++;
+			l.depth = d;
+		}
+		for (int i = loops.size() - 1; i >= 0; i--) { //outermost first, so inner loops overwrite
+			Loop l = loops.get(i);
+			for (BasicBlock b : l.blocks) {
+				innermost[b.getId()] = l;
+			}
+		}
+	}
+
+	/**
+	 * @return all of the loops, inner loops before the loops around them
+	 */
+	public List<Loop> getLoops() {
+		return loops;
+	}
+
+	/**
+	 * @return the innermost loop that b is in, or null if b is in no loop
+	 */
+	public Loop getLoop(BasicBlock b) {
+		return innermost[b.getId()];
+	}
+
+	/**
+	 * @return how many loops b is in
+	 */
+	public int getDepth(BasicBlock b) {
+		Loop l = innermost[b.getId()];
+		return (l == null) ? 0 : l.depth;
+	}
+}
@@ -0,0 +1,235 @@
+package assembly.ssa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.BasicBlock;
+import assembly.ControlFlowGraph;
+import assembly.dataflow.DataflowAnalysis;
+import assembly.dataflow.Liveness;
+import assembly.instructions.Instruction;
+import assembly.instructions.Phi;
+
+/**
+ * Puts a function into SSA form.
+ *
+ * Code generation already gives every intermediate value a temp of its own, so
+ * most temps are written exactly once, before all of their reads. The temps that
+ * are not (say, a local that was promoted out of memory and is assigned in both
+ * arms of an if) are the variables that need renaming. For each of them this pass
+ *
+ * <ol>
+ * <li>places phis at the iterated dominance frontier of the blocks that write it,
+ * wherever it is live (pruned SSA), and</li>
+ * <li>walks the dominator tree, giving every write a new temp and pointing every
+ * read at the write that reaches it.</li>
+ * </ol>
+ *
+ * Blocks that cannot be reached are dropped first. A read that no write reaches
+ * keeps the old name, which is then never written.
+ *
+ * {@link SSADestruction} takes the function back out of SSA form.
+ */
+public class SSAConstruction {
+
+	private final ControlFlowGraph cfg;
+	private DominatorTree dom;
+
+	public SSAConstruction(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+	}
+
+	/**
+	 * @return the dominator tree of the function, as built for the construction
+	 */
+	public DominatorTree run() {
+		cfg.removeUnreachableBlocks();
+		dom = new DominatorTree(cfg);
+
+		BitSet vars = findVariables();
+		if (!vars.isEmpty()) {
+			placePhis(vars);
+			rename(vars);
+		}
+		return dom;
+	}
+
+	/**
+	 * @return the temps that are written more than once, or read somewhere their
+	 *         one write does not dominate
+	 */
+	private BitSet findVariables() {
+		Map<Integer, BasicBlock> defBlock = new HashMap<Integer, BasicBlock>();
+		Map<Integer, Integer> defIndex = new HashMap<Integer, Integer>();
+		BitSet vars = new BitSet();
+
+		for (BasicBlock b : dom.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			for (int j = 0; j < insts.size(); j++) {
+				int d = DataflowAnalysis.tempIndex(insts.get(j).getDef());
+				if (d < 0) continue;
+				if (defBlock.containsKey(d)) {
+					vars.set(d);
+				} else {
+					defBlock.put(d, b);
+					defIndex.put(d, j);
+				}
+			}
+		}
+
+		for (BasicBlock b : dom.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			for (int j = 0; j < insts.size(); j++) {
+				for (String use : insts.get(j).getUses()) {
+					int u = DataflowAnalysis.tempIndex(use);
+					if (u < 0 || vars.get(u)) continue;
+					BasicBlock d = defBlock.get(u);
+					if (d == null) continue; //never written: nothing to rename
+					boolean dominated = (d == b) ? defIndex.get(u) < j : dom.dominates(d, b);
+					if (!dominated) vars.set(u);
+				}
+			}
+		}
+		return vars;
+	}
+
+	/**
+	 * Place a phi for each variable at the iterated dominance frontier of the
+	 * blocks that write it, if the variable is live there
+	 */
+	private void placePhis(BitSet vars) {
+		Liveness liveness = new Liveness(cfg);
+		liveness.solve();
+
+		Map<Integer, List<BasicBlock>> defBlocks = new HashMap<Integer, List<BasicBlock>>();
+		for (BasicBlock b : dom.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				int d = DataflowAnalysis.tempIndex(i.getDef());
+				if (d < 0 || !vars.get(d)) continue;
+				List<BasicBlock> l = defBlocks.get(d);
+				if (l == null) {
+					l = new ArrayList<BasicBlock>();
+					defBlocks.put(d, l);
+				}
+				if (l.isEmpty() || l.get(l.size() - 1) != b) l.add(b);
+			}
+		}
+
+		int n = cfg.getNumBlockIds();
+		for (int v = vars.nextSetBit(0); v >= 0; v = vars.nextSetBit(v + 1)) {
+			if (!defBlocks.containsKey(v)) continue;
+			String name = DataflowAnalysis.tempName(v);
+			boolean[] hasPhi = new boolean[n];
+			boolean[] queued = new boolean[n];
+			ArrayDeque<BasicBlock> worklist = new ArrayDeque<BasicBlock>();
+			for (BasicBlock b : defBlocks.get(v)) {
+				queued[b.getId()] = true;
+				worklist.add(b);
+			}
+			while (!worklist.isEmpty()) {
+				BasicBlock b = worklist.poll();
+				for (BasicBlock f : dom.getFrontier(b)) {
+					if (hasPhi[f.getId()]) continue;
+					hasPhi[f.getId()] = true;
+					if (!liveness.getIn(f).get(v)) continue; //dead here: no phi needed
+					Phi phi = new Phi(name);
+					for (BasicBlock p : f.getPredecessors()) {
+						phi.setArg(p, name);
+					}
+					f.getInstructions().add(0, phi);
+					if (!queued[f.getId()]) {
+						queued[f.getId()] = true;
+						worklist.add(f);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * One block on the walk down the dominator tree
+	 */
+	private static class Frame {
+		final BasicBlock block;
+		final List<String> defined; //variables that got a new name in the block
+		int nextChild;
+
+		Frame(BasicBlock block) {
+			this.block = block;
+			this.defined = new ArrayList<String>();
+			this.nextChild = -1; //not renamed yet
+		}
+	}
+
+	/**
+	 * Walk the dominator tree with a stack of names for each variable. The walk
+	 * keeps its own stack, since dominator trees can be very deep.
+	 */
+	private void rename(BitSet vars) {
+		Map<String, ArrayDeque<String>> names = new HashMap<String, ArrayDeque<String>>();
+		for (int v = vars.nextSetBit(0); v >= 0; v = vars.nextSetBit(v + 1)) {
+			names.put(DataflowAnalysis.tempName(v), new ArrayDeque<String>());
+		}
+
+		ArrayDeque<Frame> walk = new ArrayDeque<Frame>();
+		walk.push(new Frame(cfg.getEntry()));
+		while (!walk.isEmpty()) {
+			Frame f = walk.peek();
+			if (f.nextChild < 0) {
+				renameBlock(f, names);
+				f.nextChild = 0;
+			}
+			List<BasicBlock> children = dom.getChildren(f.block);
+			if (f.nextChild < children.size()) {
+				walk.push(new Frame(children.get(f.nextChild++)));
+			} else {
+				for (String v : f.defined) {
+					names.get(v).pop();
+				}
+				walk.pop();
+			}
+		}
+	}
+
+	private void renameBlock(Frame f, Map<String, ArrayDeque<String>> names) {
+		BasicBlock b = f.block;
+		List<Instruction> insts = b.getInstructions();
+		for (int j = 0; j < insts.size(); j++) {
+			Instruction i = insts.get(j);
+
+			Map<String, String> uses = new HashMap<String, String>();
+			if (!(i instanceof Phi)) { //phi arguments are renamed from the predecessors
+				for (String use : i.getUses()) {
+					ArrayDeque<String> s = names.get(use);
+					if (s != null && !s.isEmpty()) uses.put(use, s.peek());
+				}
+			}
+			String def = i.getDef();
+			ArrayDeque<String> defNames = (def != null) ? names.get(def) : null;
+			if (uses.isEmpty() && defNames == null) continue;
+
+			Instruction r = i.copy(); //the same instruction can appear more than once
+			r.renameUses(uses);
+			if (defNames != null) {
+				String newName = cfg.newTemp(def.charAt(0));
+				r.renameDef(newName);
+				defNames.push(newName);
+				f.defined.add(def);
+			}
+			insts.set(j, r);
+		}
+
+		for (BasicBlock succ : b.getSuccessors()) {
+			for (Instruction i : succ.getInstructions()) {
+				if (!(i instanceof Phi)) break;
+				Phi phi = (Phi) i;
+				ArrayDeque<String> s = names.get(phi.getArg(b));
+				if (s != null && !s.isEmpty()) phi.setArg(b, s.peek());
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package assembly.ssa;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.BasicBlock;
+import assembly.CodeGenerator;
+import assembly.ControlFlowGraph;
+import assembly.dataflow.DataflowAnalysis;
+import assembly.dataflow.Liveness;
+import assembly.instructions.FMv;
+import assembly.instructions.Instruction;
+import assembly.instructions.Mv;
+import assembly.instructions.Phi;
+
+/**
+ * Takes a function out of SSA form, and coalesces copies.
+ *
+ * <ol>
+ * <li>Critical edges into blocks with phis get a block of their own, so there is
+ * somewhere to put the copies for that edge.</li>
+ * <li>Each phi <code>x = phi(a1, ..., an)</code> becomes a copy <code>x' = ai</code>
+ * at the end of each predecessor and a copy <code>x = x'</code> where the phi
+ * was, with a new temp x' (Sreedhar's method I). This is always correct, even
+ * after passes have moved code around and made the live ranges of different
+ * names of one variable overlap.</li>
+ * <li>Then copies whose source and destination do not interfere are coalesced:
+ * the two temps become one, and the copy goes away. This removes nearly all of
+ * the copies the previous step made, and copies the code generator made for
+ * assignments, too.</li>
+ * <li>Blocks from the first step that are left empty go again.</li>
+ * </ol>
+ */
+public class SSADestruction {
+
+	private final ControlFlowGraph cfg;
+
+	public SSADestruction(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+	}
+
+	public void run() {
+		splitCriticalEdges();
+		lowerPhis();
+		coalesceCopies(cfg);
+		cfg.removeEmptyBlocks(); //the split edges whose copies were coalesced away
+	}
+
+	private void splitCriticalEdges() {
+		for (BasicBlock b : new ArrayList<BasicBlock>(cfg.getBlocks())) {
+			if (!hasPhis(b) || b.getPredecessors().size() < 2) continue;
+			for (BasicBlock p : new ArrayList<BasicBlock>(b.getPredecessors())) {
+				if (p.getSuccessors().size() > 1) cfg.splitEdge(p, b);
+			}
+		}
+	}
+
+	private static boolean hasPhis(BasicBlock b) {
+		return !b.getInstructions().isEmpty() && b.getInstructions().get(0) instanceof Phi;
+	}
+
+	private void lowerPhis() {
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			List<Instruction> heads = new ArrayList<Instruction>();
+			int numPhis = 0;
+			while (numPhis < insts.size() && insts.get(numPhis) instanceof Phi) {
+				Phi phi = (Phi) insts.get(numPhis++);
+				String x = phi.getDef();
+				String shared = cfg.newTemp(x.charAt(0));
+				for (BasicBlock p : b.getPredecessors()) {
+					String arg = phi.getArg(p);
+					if (arg != null) addBeforeTerminator(p, copy(arg, shared));
+				}
+				heads.add(copy(shared, x));
+			}
+			if (numPhis == 0) continue;
+			insts.subList(0, numPhis).clear();
+			insts.addAll(0, heads);
+		}
+	}
+
+	private static void addBeforeTerminator(BasicBlock b, Instruction i) {
+		List<Instruction> insts = b.getInstructions();
+		int at = (b.getTerminator() != null) ? insts.size() - 1 : insts.size();
+		insts.add(at, i);
+	}
+
+	/**
+	 * @return a copy from src to dest, of the right class of register
+	 */
+	public static Instruction copy(String src, String dest) {
+		return (dest.charAt(0) == CodeGenerator.floatTempPrefix) ? new FMv(src, dest) : new Mv(src, dest);
+	}
+
+	private static boolean isCopy(Instruction i) {
+		return (i instanceof Mv || i instanceof FMv)
+				&& DataflowAnalysis.tempIndex(i.getDef()) >= 0
+				&& DataflowAnalysis.tempIndex(i.getSrc1()) >= 0;
+	}
+
+	/**
+	 * Merge the source and destination of every copy where they do not interfere,
+	 * and delete the copies that end up copying a temp to itself.
+	 *
+	 * Two temps interfere if one is written while the other is live (a copy does
+	 * not make its destination interfere with its source). Only temps that take
+	 * part in a copy are tracked, which keeps the interference graph small.
+	 */
+	public static void coalesceCopies(ControlFlowGraph cfg) {
+		//number the temps that appear in copies
+		Map<Integer, Integer> candidate = new HashMap<Integer, Integer>();
+		List<Integer> temps = new ArrayList<Integer>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				if (!isCopy(i)) continue;
+				for (String r : new String[] {i.getDef(), i.getSrc1()}) {
+					int t = DataflowAnalysis.tempIndex(r);
+					if (!candidate.containsKey(t)) {
+						candidate.put(t, temps.size());
+						temps.add(t);
+					}
+				}
+			}
+		}
+		if (temps.isEmpty()) return;
+
+		int n = temps.size();
+		BitSet[] interferes = new BitSet[n];
+		for (int c = 0; c < n; c++) {
+			interferes[c] = new BitSet();
+		}
+
+		Liveness liveness = new Liveness(cfg);
+		liveness.solve();
+		for (BasicBlock b : cfg.getBlocks()) {
+			BitSet live = liveness.getOut(b);
+			List<Instruction> insts = b.getInstructions();
+			for (int j = insts.size() - 1; j >= 0; j--) {
+				Instruction i = insts.get(j);
+				Integer d = candidate.get(DataflowAnalysis.tempIndex(i.getDef()));
+				if (d != null) {
+					int src = isCopy(i) ? DataflowAnalysis.tempIndex(i.getSrc1()) : -1;
+					for (int t = live.nextSetBit(0); t >= 0; t = live.nextSetBit(t + 1)) {
+						Integer c = candidate.get(t);
+						if (c == null || c.intValue() == d.intValue() || t == src) continue;
+						interferes[d].set(c);
+						interferes[c].set(d);
+					}
+				}
+				Liveness.step(i, live);
+			}
+		}
+
+		//union-find over the candidates; the root of a class keeps the temps that
+		//any member of the class interferes with
+		int[] parent = new int[n];
+		for (int c = 0; c < n; c++) {
+			parent[c] = c;
+		}
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction i : b.getInstructions()) {
+				if (!isCopy(i)) continue;
+				int x = find(parent, candidate.get(DataflowAnalysis.tempIndex(i.getDef())));
+				int y = find(parent, candidate.get(DataflowAnalysis.tempIndex(i.getSrc1())));
+				if (x == y || interfere(parent, interferes, x, y)) continue;
+				parent[y] = x;
+				interferes[x].or(interferes[y]);
+			}
+		}
+
+		Map<String, String> names = new HashMap<String, String>();
+		for (int c = 0; c < n; c++) {
+			int root = find(parent, c);
+			if (root != c) {
+				names.put(DataflowAnalysis.tempName(temps.get(c)), DataflowAnalysis.tempName(temps.get(root)));
+			}
+		}
+		if (names.isEmpty()) return;
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			List<Instruction> insts = b.getInstructions();
+			List<Instruction> renamed = new ArrayList<Instruction>(insts.size());
+			for (Instruction i : insts) {
+				Instruction r = i;
+				if (touches(i, names)) {
+					r = i.copy();
+					r.renameRegisters(names);
+				}
+				if (isCopy(r) && r.getDef().equals(r.getSrc1())) continue;
+				renamed.add(r);
+			}
+			insts.clear();
+			insts.addAll(renamed);
+		}
+	}
+
+	private static boolean touches(Instruction i, Map<String, String> names) {
+		if (i.getDef() != null && names.containsKey(i.getDef())) return true;
+		for (String use : i.getUses()) {
+			if (names.containsKey(use)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if some member of the class rooted at x interferes with some
+	 *         member of the class rooted at y
+	 */
+	private static boolean interfere(int[] parent, BitSet[] interferes, int x, int y) {
+		BitSet s = interferes[x];
+		for (int c = s.nextSetBit(0); c >= 0; c = s.nextSetBit(c + 1)) {
+			if (find(parent, c) == y) return true;
+		}
+		return false;
+	}
+
+	private static int find(int[] parent, int c) {
+		while (parent[c] != c) {
+			parent[c] = parent[parent[c]];
+			c = parent[c];
+		}
+		return c;
+	}
+}
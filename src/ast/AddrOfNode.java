@@ -1,7 +1,6 @@
 package ast;
 
 import ast.visitor.ASTVisitor;
-import compiler.Scope;
 
 /**
  * A node for unary expressions (negation)
@@ -14,8 +13,7 @@ public class AddrOfNode extends ExpressionNode {
 	
 	public AddrOfNode(ExpressionNode expr) {
 		this.setExpr(expr);
-		//Fix the type up. If the type of expr is T, the type of this is * T
-		this.setType(Scope.Type.pointerToType(expr.getType()));
+		//the type is filled in by the TypeChecker
 	}
 
 	@Override
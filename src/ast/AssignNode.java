@@ -18,7 +18,7 @@ public class AssignNode extends TypedASTNode implements StatementNode {
 	public AssignNode(TypedASTNode left, ExpressionNode right) {
 		this.setLeft(left);
 		this.setRight(right);
-		this.setType(left.getType());
+		//the type is filled in by the TypeChecker
 	}
 	
 	@Override
@@ -38,7 +38,7 @@ public class AssignNode extends TypedASTNode implements StatementNode {
 		return right;
 	}
 
-	private void setRight(ExpressionNode right) {
+	public void setRight(ExpressionNode right) {
 		this.right = right;
 	}
 
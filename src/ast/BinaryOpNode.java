@@ -31,7 +31,7 @@ public class BinaryOpNode extends ExpressionNode {
 		this.setLeft(left);
 		this.setRight(right);
 		this.setOp(getOpFromString(op));
-		this.setType(left.getType()); //This node inherits its type from the left child
+		//the type is filled in by the TypeChecker
 	}
 		
 	private OpType getOpFromString(String s) {
@@ -53,7 +53,7 @@ public class BinaryOpNode extends ExpressionNode {
 		return left;
 	}
 
-	private void setLeft(ExpressionNode left) {
+	public void setLeft(ExpressionNode left) {
 		this.left = left;
 	}
 
@@ -61,7 +61,7 @@ public class BinaryOpNode extends ExpressionNode {
 		return right;
 	}
 
-	private void setRight(ExpressionNode right) {
+	public void setRight(ExpressionNode right) {
 		this.right = right;
 	}
 
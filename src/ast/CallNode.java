@@ -5,7 +5,7 @@ import compiler.Scope;
 import java.util.List;
 
 import ast.visitor.ASTVisitor;
-import compiler.Compiler;
+import compiler.SymbolTable;
 
 public class CallNode extends AbstractCallNode {
 
@@ -13,8 +13,8 @@ public class CallNode extends AbstractCallNode {
     String funcName;
     Scope.FunctionSymbolTableEntry ste;
 
-    public CallNode(String funcName, List<ExpressionNode> args) {
-        this.ste = (Scope.FunctionSymbolTableEntry) Compiler.symbolTable.getFunctionSymbol(funcName);
+    public CallNode(String funcName, List<ExpressionNode> args, SymbolTable symbolTable) {
+        this.ste = (Scope.FunctionSymbolTableEntry) symbolTable.getFunctionSymbol(funcName);
         this.funcName = funcName;
         this.args = args;
         this.type = ste.getReturnType();
@@ -32,5 +32,9 @@ public class CallNode extends AbstractCallNode {
     public String getFuncName() {
         return funcName;
     }
+
+    public Scope.FunctionSymbolTableEntry getSymbol() {
+        return ste;
+    }
     
 }
\ No newline at end of file
@@ -16,7 +16,6 @@ public class CastNode extends ExpressionNode {
 	
 	public CastNode(ExpressionNode expr, Scope.Type newType) {
 		this.setExpr(expr);
-        this.setType(expr.getType());
         this.setNewType(newType);
 	}
 
@@ -29,7 +28,7 @@ public class CastNode extends ExpressionNode {
 		return expr;
 	}
 
-	private void setExpr(ExpressionNode right) {
+	public void setExpr(ExpressionNode right) {
 		this.expr = right;
     }
     
@@ -54,7 +54,7 @@ public class CondNode implements ASTNode {
 		return left;
 	}
 
-	private void setLeft(ExpressionNode left) {
+	public void setLeft(ExpressionNode left) {
 		this.left = left;
 	}
 
@@ -62,7 +62,7 @@ public class CondNode implements ASTNode {
 		return right;
 	}
 
-	private void setRight(ExpressionNode right) {
+	public void setRight(ExpressionNode right) {
 		this.right = right;
 	}
 
@@ -3,7 +3,7 @@ package ast;
 import compiler.Scope;
 
 import ast.visitor.ASTVisitor;
-import compiler.Compiler;
+import compiler.SymbolTable;
 
 public class FreeNode extends AbstractCallNode {
 
@@ -11,10 +11,10 @@ public class FreeNode extends AbstractCallNode {
     String funcName;
     Scope.FunctionSymbolTableEntry ste;
 
-    public FreeNode(ExpressionNode arg) {
-        this.ste = (Scope.FunctionSymbolTableEntry) Compiler.symbolTable.getFunctionSymbol(funcName);
+    public FreeNode(ExpressionNode arg, SymbolTable symbolTable) {
+        this.ste = (Scope.FunctionSymbolTableEntry) symbolTable.getFunctionSymbol(funcName);
         this.arg = arg;
-        this.type = new Scope.Type(Scope.InnerType.VOID); //set this to void
+        this.type = Scope.Type.VOID; //set this to void
     }
 
     @Override
@@ -26,6 +26,10 @@ public class FreeNode extends AbstractCallNode {
         return arg;
     }
 
+    public void setArg(ExpressionNode arg) {
+        this.arg = arg;
+    }
+
     public String getFuncName() {
         return funcName;
     }
@@ -3,7 +3,7 @@ package ast;
 import compiler.Scope;
 
 import ast.visitor.ASTVisitor;
-import compiler.Compiler;
+import compiler.SymbolTable;
 
 public class MallocNode extends AbstractCallNode {
 
@@ -11,10 +11,10 @@ public class MallocNode extends AbstractCallNode {
     String funcName;
     Scope.FunctionSymbolTableEntry ste;
 
-    public MallocNode(ExpressionNode arg) {
-        this.ste = (Scope.FunctionSymbolTableEntry) Compiler.symbolTable.getFunctionSymbol(funcName);
+    public MallocNode(ExpressionNode arg, SymbolTable symbolTable) {
+        this.ste = (Scope.FunctionSymbolTableEntry) symbolTable.getFunctionSymbol(funcName);
         this.arg = arg;
-        this.type = new Scope.Type(Scope.InnerType.INFER); //set this to infer
+        this.type = Scope.Type.INFER; //set this to infer
     }
 
     @Override
@@ -26,6 +26,10 @@ public class MallocNode extends AbstractCallNode {
         return arg;
     }
 
+    public void setArg(ExpressionNode arg) {
+        this.arg = arg;
+    }
+
     public String getFuncName() {
         return funcName;
     }
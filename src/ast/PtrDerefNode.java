@@ -1,7 +1,6 @@
 package ast;
 
 import ast.visitor.ASTVisitor;
-import compiler.Scope;
 
 /**
  * A node for unary expressions (negation)
@@ -14,9 +13,7 @@ public class PtrDerefNode extends ExpressionNode {
 	
 	public PtrDerefNode(ExpressionNode expr) {
 		this.setExpr(expr);
-		//Fix the type up. If the type of expr is * T, the type of this is T
-		assert(expr.getType().type == Scope.InnerType.PTR);
-		this.setType(expr.getType().getWrappedType());
+		//the type is filled in by the TypeChecker
 	}
 
 	@Override
@@ -28,7 +25,7 @@ public class PtrDerefNode extends ExpressionNode {
 		return expr;
 	}
 
-	private void setExpr(ExpressionNode right) {
+	public void setExpr(ExpressionNode right) {
 		this.expr = right;
 	}
 }
\ No newline at end of file
@@ -27,7 +27,7 @@ public class ReturnNode implements StatementNode {
 		return retExpr;
 	}
 
-	private void setRetExpr(ExpressionNode expr) {
+	public void setRetExpr(ExpressionNode expr) {
 		retExpr = expr;
 	}
 
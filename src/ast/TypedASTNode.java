@@ -15,7 +15,11 @@ public abstract class TypedASTNode implements ASTNode {
 		return type;
 	}
 
-	protected void setType(Scope.Type type) {
+	/**
+	 * Expressions built from other expressions get their type from the
+	 * {@link ast.visitor.TypeChecker}
+	 */
+	public void setType(Scope.Type type) {
 		this.type = type;
 	}
 
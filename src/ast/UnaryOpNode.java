@@ -19,7 +19,7 @@ public class UnaryOpNode extends ExpressionNode {
 	public UnaryOpNode(ExpressionNode expr, String op) {
 		this.setExpr(expr);
 		this.setOp(getOpFromString(op));
-		this.setType(expr.getType());
+		//the type is filled in by the TypeChecker
 	}
 		
 	private OpType getOpFromString(String s) {
@@ -38,7 +38,7 @@ public class UnaryOpNode extends ExpressionNode {
 		return expr;
 	}
 
-	private void setExpr(ExpressionNode right) {
+	public void setExpr(ExpressionNode right) {
 		this.expr = right;
 	}
 
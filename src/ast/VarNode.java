@@ -2,7 +2,7 @@ package ast;
 
 import ast.visitor.ASTVisitor;
 import compiler.Scope.SymbolTableEntry;
-import compiler.Compiler;
+import compiler.SymbolTable;
 
 /**
  * A node for variables
@@ -15,9 +15,9 @@ public class VarNode extends ExpressionNode {
 	private String id;
 	private SymbolTableEntry ste;
 	
-	public VarNode(String id) {
+	public VarNode(String id, SymbolTable symbolTable) {
 		this.setId(id);
-		setSymbol(Compiler.symbolTable.getSymbolTableEntry(id));
+		setSymbol(symbolTable.getSymbolTableEntry(id));
 		setType(ste.getType());
 	}
 
@@ -24,7 +24,7 @@ public class WriteNode implements StatementNode {
 		return writeExpr;
 	}
 
-	private void setWriteExpr(ExpressionNode expr) {
+	public void setWriteExpr(ExpressionNode expr) {
 		writeExpr = expr;
 	}
 
@@ -0,0 +1,440 @@
+package ast.visitor;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import ast.ASTNode;
+import ast.AddrOfNode;
+import ast.AssignNode;
+import ast.BinaryOpNode;
+import ast.CallNode;
+import ast.CastNode;
+import ast.CondNode;
+import ast.ExpressionNode;
+import ast.FloatLitNode;
+import ast.FreeNode;
+import ast.FunctionNode;
+import ast.IfStatementNode;
+import ast.IntLitNode;
+import ast.MallocNode;
+import ast.PtrDerefNode;
+import ast.ReadNode;
+import ast.ReturnNode;
+import ast.StatementListNode;
+import ast.StatementNode;
+import ast.UnaryOpNode;
+import ast.VarNode;
+import ast.WhileNode;
+import ast.WriteNode;
+import compiler.Scope.SymbolTableEntry;
+import compiler.Scope.Type;
+
+/**
+ * Folds constant expressions in the AST, and propagates constants through variables.
+ *
+ * Operators whose operands are all literals (binary and unary operators, casts)
+ * are replaced by a literal. Ints are promoted to floats the same way the
+ * generated code does it (IMOVF), and floats are truncated to ints (FMOVI).
+ * Conditions of ifs and whiles that fold to a constant pick a branch at compile
+ * time.
+ *
+ * A variable that was just assigned a constant is replaced by that constant when
+ * it is read. The known values are tracked through straight-line code, merged
+ * after an if, and dropped for anything assigned inside a loop. Variables whose
+ * address is taken are never tracked (a pointer could change them behind our
+ * back), and globals are forgotten at every call.
+ *
+ * This must run after the {@link TypeChecker}. Each visit returns the node that
+ * should replace the one visited (often the node itself).
+ */
+public class ConstantFolder extends AbstractASTVisitor<ASTNode> {
+
+	private Map<SymbolTableEntry, ExpressionNode> constants; //known values of variables (literal nodes)
+	private Set<SymbolTableEntry> addressTaken;
+
+	@Override
+	public ASTNode run(ASTNode node) {
+		addressTaken = new HashSet<SymbolTableEntry>();
+		node.accept(new AbstractASTVisitor<Void>() {
+			@Override
+			protected Void postprocess(AddrOfNode n, Void expr) {
+				if (n.getExpr() instanceof VarNode) {
+					addressTaken.add(((VarNode) n.getExpr()).getSymbol());
+				}
+				return null;
+			}
+		});
+
+		constants = new HashMap<SymbolTableEntry, ExpressionNode>();
+		return node.accept(this);
+	}
+
+	/* Statements */
+
+	@Override
+	public ASTNode visit(FunctionNode node) {
+		constants.clear(); //nothing is known on entry
+		node.getFuncBody().accept(this);
+		return node;
+	}
+
+	/**
+	 * Folded ifs and whiles come back as statement lists; splice them in.
+	 */
+	@Override
+	public ASTNode visit(StatementListNode node) {
+		List<StatementNode> folded = new LinkedList<StatementNode>();
+		for (StatementNode s : node.getStatements()) {
+			ASTNode r = s.accept(this);
+			if (r instanceof StatementListNode) {
+				folded.addAll(((StatementListNode) r).getStatements());
+			} else {
+				folded.add((StatementNode) r);
+			}
+		}
+		node.getStatements().clear();
+		node.getStatements().addAll(folded);
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(AssignNode node) {
+		//the address is computed before the value, so fold in that order
+		if (!(node.getLeft() instanceof VarNode)) {
+			node.getLeft().accept(this);
+		}
+		ExpressionNode right = fold((ExpressionNode) node.getRight());
+		node.setRight(right);
+
+		if (node.getLeft() instanceof VarNode) {
+			SymbolTableEntry ste = ((VarNode) node.getLeft()).getSymbol();
+			ExpressionNode value = isConstant(right) ? convert(right, ste.getType()) : null;
+			if (value != null && isTracked(ste)) {
+				constants.put(ste, value);
+			} else {
+				constants.remove(ste);
+			}
+		}
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(ReadNode node) {
+		constants.remove(node.getVarNode().getSymbol());
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(WriteNode node) {
+		node.setWriteExpr(fold(node.getWriteExpr()));
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(ReturnNode node) {
+		if (node.getRetExpr() != null) {
+			node.setRetExpr(fold(node.getRetExpr()));
+		}
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(IfStatementNode node) {
+		Boolean cond = foldCond(node.getCondExpr());
+		if (cond != null) {
+			StatementListNode taken = cond ? node.getThenBlock() : node.getElseBlock();
+			return (taken == null) ? new StatementListNode() : taken.accept(this);
+		}
+
+		Map<SymbolTableEntry, ExpressionNode> before = constants;
+		constants = new HashMap<SymbolTableEntry, ExpressionNode>(before);
+		node.getThenBlock().accept(this);
+		Map<SymbolTableEntry, ExpressionNode> afterThen = constants;
+
+		constants = new HashMap<SymbolTableEntry, ExpressionNode>(before);
+		if (node.getElseBlock() != null) {
+			node.getElseBlock().accept(this);
+		}
+
+		//only keep what both branches agree on
+		Iterator<Map.Entry<SymbolTableEntry, ExpressionNode>> it = constants.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<SymbolTableEntry, ExpressionNode> e = it.next();
+			if (!sameConstant(e.getValue(), afterThen.get(e.getKey()))) {
+				it.remove();
+			}
+		}
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(WhileNode node) {
+		//anything the loop changes is unknown in the condition, the body, and afterwards
+		LoopEffects effects = new LoopEffects();
+		node.getCond().accept(effects);
+		node.getSlist().accept(effects);
+		constants.keySet().removeAll(effects.assigned);
+		if (effects.hasCall) {
+			forgetGlobals();
+		}
+
+		Boolean cond = foldCond(node.getCond());
+		if (cond != null && !cond) {
+			return new StatementListNode(); //never runs
+		}
+
+		Map<SymbolTableEntry, ExpressionNode> before = constants;
+		constants = new HashMap<SymbolTableEntry, ExpressionNode>(before);
+		node.getSlist().accept(this);
+		constants = before;
+		return node;
+	}
+
+	/**
+	 * Finds the variables a loop assigns, and whether it makes any calls
+	 */
+	private static class LoopEffects extends AbstractASTVisitor<Void> {
+		Set<SymbolTableEntry> assigned = new HashSet<SymbolTableEntry>();
+		boolean hasCall = false;
+
+		@Override
+		protected Void postprocess(AssignNode node, Void left, Void right) {
+			if (node.getLeft() instanceof VarNode) {
+				assigned.add(((VarNode) node.getLeft()).getSymbol());
+			}
+			return null;
+		}
+
+		@Override
+		protected Void postprocess(ReadNode node, Void var) {
+			assigned.add(node.getVarNode().getSymbol());
+			return null;
+		}
+
+		@Override
+		protected Void postprocess(CallNode node, List<Void> args) {
+			hasCall = true;
+			return null;
+		}
+	}
+
+	/* Expressions */
+
+	@Override
+	public ASTNode visit(VarNode node) {
+		ExpressionNode value = constants.get(node.getSymbol());
+		return (value != null) ? copy(value) : node;
+	}
+
+	@Override
+	public ASTNode visit(IntLitNode node) {
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(FloatLitNode node) {
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(BinaryOpNode node) {
+		ExpressionNode left = fold((ExpressionNode) node.getLeft());
+		ExpressionNode right = fold((ExpressionNode) node.getRight());
+		node.setLeft(left);
+		node.setRight(right);
+		if (!isConstant(left) || !isConstant(right)) return node;
+
+		if (node.getType() == Type.FLOAT) {
+			float l = floatValue(left);
+			float r = floatValue(right);
+			switch (node.getOp()) {
+				case ADD: return floatLit(l + r, node);
+				case SUB: return floatLit(l - r, node);
+				case MUL: return floatLit(l * r, node);
+				case DIV: return floatLit(l / r, node);
+			}
+		} else if (node.getType() == Type.INT) {
+			int l = intValue(left);
+			int r = intValue(right);
+			switch (node.getOp()) {
+				case ADD: return intLit(l + r);
+				case SUB: return intLit(l - r);
+				case MUL: return intLit(l * r);
+				case DIV: return (r == 0) ? node : intLit(l / r); //leave division by zero to run time
+			}
+		}
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(UnaryOpNode node) {
+		ExpressionNode expr = fold((ExpressionNode) node.getExpr());
+		node.setExpr(expr);
+		if (!isConstant(expr)) return node;
+
+		if (node.getType() == Type.FLOAT) {
+			return floatLit(-floatValue(expr), node);
+		} else if (node.getType() == Type.INT) {
+			return intLit(-intValue(expr));
+		}
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(CastNode node) {
+		ExpressionNode expr = fold((ExpressionNode) node.getExpr());
+		node.setExpr(expr);
+		if (!isConstant(expr)) return node;
+
+		ExpressionNode value = convert(expr, node.getNewType());
+		return (value != null) ? value : node;
+	}
+
+	@Override
+	public ASTNode visit(CallNode node) {
+		ListIterator<ExpressionNode> args = node.getArgs().listIterator();
+		while (args.hasNext()) {
+			args.set(fold(args.next()));
+		}
+		forgetGlobals(); //the callee can change any global
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(PtrDerefNode node) {
+		node.setExpr(fold((ExpressionNode) node.getExpr()));
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(AddrOfNode node) {
+		//the operand is an address, not a value; only fold inside it (e.g., an array index)
+		if (!(node.getExpr() instanceof VarNode)) {
+			node.getExpr().accept(this);
+		}
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(MallocNode node) {
+		node.setArg(fold(node.getArg()));
+		return node;
+	}
+
+	@Override
+	public ASTNode visit(FreeNode node) {
+		node.setArg(fold(node.getArg()));
+		return node;
+	}
+
+	/**
+	 * Fold both sides of a condition
+	 *
+	 * @return the value of the condition if it is constant, otherwise null
+	 */
+	private Boolean foldCond(CondNode node) {
+		ExpressionNode left = fold(node.getLeft());
+		ExpressionNode right = fold(node.getRight());
+		node.setLeft(left);
+		node.setRight(right);
+		if (!isConstant(left) || !isConstant(right)) return null;
+
+		int cmp;
+		if (left.getType() == Type.FLOAT || right.getType() == Type.FLOAT) {
+			cmp = Float.compare(floatValue(left), floatValue(right));
+		} else {
+			cmp = Integer.compare(intValue(left), intValue(right));
+		}
+
+		switch (node.getOp()) {
+			case EQ: return cmp == 0;
+			case NE: return cmp != 0;
+			case LT: return cmp < 0;
+			case LE: return cmp <= 0;
+			case GT: return cmp > 0;
+			case GE: return cmp >= 0;
+			default: return null;
+		}
+	}
+
+	/* Helpers */
+
+	private ExpressionNode fold(ExpressionNode node) {
+		return (ExpressionNode) node.accept(this);
+	}
+
+	private boolean isTracked(SymbolTableEntry ste) {
+		return (ste.getType() == Type.INT || ste.getType() == Type.FLOAT) && !addressTaken.contains(ste);
+	}
+
+	private void forgetGlobals() {
+		Iterator<SymbolTableEntry> it = constants.keySet().iterator();
+		while (it.hasNext()) {
+			if (!it.next().isLocal()) {
+				it.remove();
+			}
+		}
+	}
+
+	private static boolean isConstant(ExpressionNode node) {
+		if (node instanceof IntLitNode) {
+			try {
+				Integer.parseInt(((IntLitNode) node).getVal());
+				return true;
+			} catch (NumberFormatException e) {
+				return false; //too big to fold safely
+			}
+		}
+		return node instanceof FloatLitNode;
+	}
+
+	private static boolean sameConstant(ExpressionNode a, ExpressionNode b) {
+		if (a == null || b == null || a.getClass() != b.getClass()) return false;
+		if (a instanceof IntLitNode) return ((IntLitNode) a).getVal().equals(((IntLitNode) b).getVal());
+		return ((FloatLitNode) a).getVal().equals(((FloatLitNode) b).getVal());
+	}
+
+	private static int intValue(ExpressionNode node) {
+		if (node instanceof FloatLitNode) return (int) floatValue(node); //FMOVI truncates
+		return Integer.parseInt(((IntLitNode) node).getVal());
+	}
+
+	private static float floatValue(ExpressionNode node) {
+		if (node instanceof IntLitNode) return (float) intValue(node); //IMOVF
+		return Float.parseFloat(((FloatLitNode) node).getVal());
+	}
+
+	/**
+	 * A literal holding the value of <code>node</code> converted to type t, or null
+	 * if there is no such literal
+	 */
+	private static ExpressionNode convert(ExpressionNode node, Type t) {
+		if (t == Type.INT) return intLit(intValue(node));
+		if (t == Type.FLOAT) return floatLit(floatValue(node), null);
+		return null;
+	}
+
+	private static ExpressionNode copy(ExpressionNode lit) {
+		if (lit instanceof IntLitNode) return new IntLitNode(((IntLitNode) lit).getVal());
+		return new FloatLitNode(((FloatLitNode) lit).getVal());
+	}
+
+	private static ExpressionNode intLit(int val) {
+		return new IntLitNode(Integer.toString(val));
+	}
+
+	/**
+	 * A float literal, or <code>orig</code> if the value has no literal (inf or NaN)
+	 */
+	private static ExpressionNode floatLit(float val, ExpressionNode orig) {
+		if (Float.isNaN(val) || Float.isInfinite(val)) return orig;
+		return new FloatLitNode(new BigDecimal(Float.toString(val)).toPlainString());
+	}
+}
@@ -0,0 +1,135 @@
+package ast.visitor;
+
+import java.util.List;
+
+import ast.AddrOfNode;
+import ast.AssignNode;
+import ast.BinaryOpNode;
+import ast.CallNode;
+import ast.CastNode;
+import ast.FloatLitNode;
+import ast.FreeNode;
+import ast.IntLitNode;
+import ast.MallocNode;
+import ast.PtrDerefNode;
+import ast.UnaryOpNode;
+import ast.VarNode;
+import compiler.Scope;
+import compiler.Scope.InnerType;
+import compiler.Scope.Type;
+
+/**
+ * Works out the type of every expression, once, and records it in the node.
+ *
+ * Leaves (variables, literals, calls) already know their types when the parser
+ * builds them. This pass fills in the types of everything built from other
+ * expressions, bottom up, so that code generation can just read
+ * <code>getType()</code> off a node. Since {@link Scope.Type}s are interned, the
+ * types can be compared with <code>==</code>.
+ *
+ * The visitor returns the type of each expression (and null for statements).
+ */
+public class TypeChecker extends AbstractASTVisitor<Type> {
+
+	@Override
+	protected Type postprocess(VarNode node) {
+		return node.getType();
+	}
+
+	@Override
+	protected Type postprocess(IntLitNode node) {
+		return node.getType();
+	}
+
+	@Override
+	protected Type postprocess(FloatLitNode node) {
+		return node.getType();
+	}
+
+	/**
+	 * Mixing an int and a float gives a float. Adding an int to a pointer gives
+	 * a pointer (this is how array indexing works).
+	 */
+	@Override
+	protected Type postprocess(BinaryOpNode node, Type left, Type right) {
+		checkArithmetic(left);
+		checkArithmetic(right);
+
+		Type t;
+		if (left.type == InnerType.PTR) {
+			t = left;
+		} else if (right.type == InnerType.PTR) {
+			t = right;
+		} else if (left == Type.FLOAT || right == Type.FLOAT) {
+			t = Type.FLOAT;
+		} else {
+			t = Type.INT;
+		}
+		node.setType(t);
+		return t;
+	}
+
+	@Override
+	protected Type postprocess(UnaryOpNode node, Type expr) {
+		checkArithmetic(expr);
+		node.setType(expr);
+		return expr;
+	}
+
+	@Override
+	protected Type postprocess(CastNode node, Type expr) {
+		node.setType(node.getNewType());
+		return node.getNewType();
+	}
+
+	/**
+	 * An assignment has the type of the thing being assigned to
+	 */
+	@Override
+	protected Type postprocess(AssignNode node, Type left, Type right) {
+		node.setType(left);
+		return left;
+	}
+
+	@Override
+	protected Type postprocess(CallNode node, List<Type> args) {
+		return node.getType();
+	}
+
+	/**
+	 * If the type of expr is * T, the type of this is T
+	 */
+	@Override
+	protected Type postprocess(PtrDerefNode node, Type expr) {
+		if (expr.type != InnerType.PTR) {
+			throw new Error("Type error: dereferencing a " + expr);
+		}
+		node.setType(expr.getWrappedType());
+		return node.getType();
+	}
+
+	/**
+	 * If the type of expr is T, the type of this is * T
+	 */
+	@Override
+	protected Type postprocess(AddrOfNode node, Type expr) {
+		node.setType(Type.pointerToType(expr));
+		return node.getType();
+	}
+
+	@Override
+	protected Type postprocess(MallocNode node, Type arg) {
+		return node.getType();
+	}
+
+	@Override
+	protected Type postprocess(FreeNode node, Type arg) {
+		return node.getType();
+	}
+
+	private void checkArithmetic(Type t) {
+		if (t == Type.STRING || t == Type.VOID) {
+			throw new Error("Type error: arithmetic on a " + t);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import assembly.AssemblyEmitter;
+import assembly.PeepholeOptimizer;
+import ast.ASTNode;
+
+/**
+ * Compiles many programs at once on a fork-join pool.
+ *
+ * Every input gets its own {@link Compiler}, so nothing is shared between
+ * compilations except the parser's DFA caches. Each input is written to its own
+ * output file (foo.uC becomes foo.s, next to the input or in an output directory),
+ * so the output does not depend on the number of threads or the order in which
+ * the compilations finish. Errors are reported in the order of the inputs.
+ *
+ * The options of the command line (-O0, -reg-args, the peephole rules) apply to
+ * every compilation. The passes of all of them go to one {@link PassTimer}, and
+ * the peephole counts are added up over all of them.
+ */
+public class BatchCompiler {
+
+	private final int numThreads;
+	private final String outputDir; //null means next to each input
+	private boolean optimize;
+	private int numArgRegs;
+	private List<String> peepholeRules; //null means all of them
+	private PassTimer timer;
+	private PeepholeOptimizer peepholeTotals; //counts of every compilation, added up
+
+	/**
+	 * @param numThreads size of the pool; 0 means one thread per core
+	 * @param outputDir directory for the outputs, or null to put each next to its input
+	 */
+	public BatchCompiler(int numThreads, String outputDir) {
+		this.numThreads = (numThreads > 0) ? numThreads : Runtime.getRuntime().availableProcessors();
+		this.outputDir = outputDir;
+		this.optimize = true;
+		this.numArgRegs = 0;
+		this.peepholeRules = null;
+		this.timer = new PassTimer(false);
+		this.peepholeTotals = new PeepholeOptimizer(PeepholeOptimizer.defaultRules());
+	}
+
+	/**
+	 * @see Compiler#setOptimize(boolean)
+	 */
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	/**
+	 * @see Compiler#setNumArgRegs(int)
+	 */
+	public void setNumArgRegs(int numArgRegs) {
+		this.numArgRegs = numArgRegs;
+	}
+
+	/**
+	 * Use only the named peephole rules. Each compilation gets an optimizer of
+	 * its own, since the optimizers count as they go.
+	 *
+	 * @throws IllegalArgumentException if a name is not one of the standard rules
+	 */
+	public void setPeepholeRules(List<String> names) {
+		this.peepholeTotals = new PeepholeOptimizer(PeepholeOptimizer.rules(names));
+		this.peepholeRules = names;
+	}
+
+	/**
+	 * Measure the passes of every compilation with <code>timer</code>
+	 */
+	public void setPassTimer(PassTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * @return an optimizer whose counts are those of every compilation so far,
+	 *         added up
+	 */
+	public PeepholeOptimizer getPeepholeOptimizer() {
+		return peepholeTotals;
+	}
+
+	/**
+	 * Compile one input to one output. Returns an error message, or null if
+	 * the input compiled.
+	 */
+	private class CompileTask extends RecursiveTask<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final String inputFile;
+
+		CompileTask(String inputFile) {
+			this.inputFile = inputFile;
+		}
+
+		@Override
+		protected String compute() {
+			String outputFile = outputFile(inputFile);
+			try {
+				Compiler compiler = new Compiler();
+				compiler.setOptimize(optimize);
+				compiler.setNumArgRegs(numArgRegs);
+				compiler.setPassTimer(timer);
+				if (peepholeRules != null) {
+					compiler.setPeepholeOptimizer(new PeepholeOptimizer(PeepholeOptimizer.rules(peepholeRules)));
+				}
+				ASTNode ast = compiler.parse(CharStreams.fromFileName(inputFile));
+				try (AssemblyEmitter out = AssemblyEmitter.toFile(outputFile)) {
+					compiler.generate(ast, out);
+				}
+				synchronized (peepholeTotals) {
+					peepholeTotals.addCounts(compiler.getPeepholeOptimizer());
+				}
+				return null;
+			} catch (IOException | RuntimeException | Error e) {
+				new File(outputFile).delete(); //don't leave half an output behind
+				return inputFile + ": " + e;
+			}
+		}
+	}
+
+	/**
+	 * Compile all of the inputs
+	 *
+	 * @return the error messages, in the order of the inputs (empty if everything compiled)
+	 */
+	public List<String> compile(List<String> inputFiles) {
+		final List<CompileTask> tasks = new ArrayList<CompileTask>();
+		for (String f : inputFiles) {
+			tasks.add(new CompileTask(f));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		List<String> errors = new ArrayList<String>();
+		for (CompileTask t : tasks) {
+			if (t.getRawResult() != null) {
+				errors.add(t.getRawResult());
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * foo/bar.uC becomes foo/bar.s, or outputDir/bar.s
+	 */
+	private String outputFile(String inputFile) {
+		File in = new File(inputFile);
+		String name = in.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		name = name + ".s";
+
+		File dir = (outputDir != null) ? new File(outputDir) : in.getParentFile();
+		return new File(dir, name).getPath();
+	}
+}
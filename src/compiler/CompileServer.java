@@ -0,0 +1,130 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import assembly.AssemblyEmitter;
+import ast.ASTNode;
+
+/**
+ * Keeps one JVM running to compile many programs.
+ *
+ * Every connection is one compile job: the client sends the source of a program
+ * and shuts down its half of the connection, and the server answers with the
+ * assembly and closes. If the program does not compile, the answer is a single
+ * line starting with "; error". From a shell, for example:
+ *
+ * <pre>
+ *     nc -N localhost 4000 &lt; test0.uC &gt; out0
+ *     nc -NU /tmp/microc.sock &lt; test0.uC &gt; out0
+ * </pre>
+ *
+ * Each job gets its own {@link Compiler} (and so its own symbol table), so jobs
+ * run concurrently on a pool of worker threads. The lexer and parser keep their
+ * DFA caches in static fields, so every job after the first reuses them.
+ */
+public class CompileServer implements Closeable {
+
+	private final ServerSocketChannel server;
+	private final Path socketFile; //non-null if listening on a Unix-domain socket
+	private final ExecutorService workers;
+
+	/**
+	 * Start listening on a loopback port or a Unix-domain socket.
+	 */
+	public CompileServer(SocketAddress address) throws IOException {
+		if (address instanceof UnixDomainSocketAddress) {
+			socketFile = ((UnixDomainSocketAddress) address).getPath();
+			Files.deleteIfExists(socketFile); //left over from a server that did not shut down cleanly
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			socketFile = null;
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address);
+		workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * A port number means a loopback TCP socket, anything else is the path of a
+	 * Unix-domain socket.
+	 */
+	public static SocketAddress parseAddress(String s) {
+		if (s.matches("[0-9]+")) {
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(s));
+		}
+		return UnixDomainSocketAddress.of(s);
+	}
+
+	/**
+	 * Accept jobs until the server is closed
+	 */
+	public void serve() throws IOException {
+		while (true) {
+			final SocketChannel client;
+			try {
+				client = server.accept();
+			} catch (ClosedChannelException e) {
+				return;
+			}
+			workers.execute(new Runnable() {
+				public void run() {
+					handle(client);
+				}
+			});
+		}
+	}
+
+	private void handle(SocketChannel client) {
+		try (AssemblyEmitter out = new AssemblyEmitter(client)) {
+			String source = readSource(client);
+			try {
+				Compiler compiler = new Compiler();
+				ASTNode ast = compiler.parse(CharStreams.fromString(source));
+				compiler.generate(ast, out);
+			} catch (RuntimeException | Error e) {
+				//one bad program should not take the server down
+				out.emitLine("; error: " + e);
+			}
+		} catch (IOException e) {
+			//client went away; nothing to answer
+		}
+	}
+
+	private String readSource(SocketChannel client) throws IOException {
+		ByteArrayOutputStream source = new ByteArrayOutputStream();
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 14);
+		while (client.read(buffer) >= 0) {
+			buffer.flip();
+			source.write(buffer.array(), 0, buffer.limit());
+			buffer.clear();
+		}
+		return new String(source.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+		workers.shutdown();
+		if (socketFile != null) {
+			Files.deleteIfExists(socketFile);
+		}
+	}
+}
@@ -1,69 +1,303 @@
-
 package compiler;
 
 import java.io.IOException;
 
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 
+import assembly.AssemblyEmitter;
 import assembly.CodeGenerator;
 import assembly.CodeObject;
+import assembly.PeepholeOptimizer;
 import ast.ASTNode;
+import ast.visitor.ConstantFolder;
 import ast.visitor.PrintVisitor;
+import ast.visitor.TypeChecker;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
+/**
+ * Compiles one program.
+ *
+ * All of the state of a compilation (the symbol table in particular) lives in
+ * the Compiler object, so several compilations can run side by side, e.g., in
+ * the {@link CompileServer}.
+ */
 public class Compiler {
 
-	static public SymbolTable symbolTable = new SymbolTable();
+	private SymbolTable symbolTable;
+	private PassTimer timer;
+	private boolean optimize;
+	private PeepholeOptimizer peephole;
+	private int numArgRegs;
 
 	public Compiler() {
-		
+		symbolTable = new SymbolTable();
+		timer = new PassTimer(false);
+		optimize = true;
+		peephole = new PeepholeOptimizer(PeepholeOptimizer.defaultRules());
+		numArgRegs = 0;
 	}
 
-	public static void main(String args[]) {
-		
-		
-		try {
-			MicroCLexer lexer = new MicroCLexer(CharStreams.fromFileName(args[0]));
-			
-			MicroCParser parser = new MicroCParser(new CommonTokenStream(lexer));
+	/**
+	 * Pass up to <code>numArgRegs</code> int and float arguments in registers,
+	 * and return values in a register (-reg-args). 0, the default, passes
+	 * everything on the stack. Set it before parsing.
+	 */
+	public void setNumArgRegs(int numArgRegs) {
+		this.numArgRegs = numArgRegs;
+		symbolTable.setNumArgRegs(numArgRegs);
+	}
+
+	/**
+	 * Turn the optimization passes on or off (-O0)
+	 */
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Use <code>peephole</code> to clean up the generated code. It is only run
+	 * when optimizations are on.
+	 */
+	public void setPeepholeOptimizer(PeepholeOptimizer peephole) {
+		this.peephole = peephole;
+	}
+
+	public PeepholeOptimizer getPeepholeOptimizer() {
+		return peephole;
+	}
+
+	/**
+	 * Measure the passes of this compilation with <code>timer</code>
+	 */
+	public void setPassTimer(PassTimer timer) {
+		this.timer = timer;
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Parse and type check a program, filling in the symbol table, and run the
+	 * optimizations that work on the AST
+	 *
+	 * @return the AST of the program
+	 */
+	@SuppressWarnings("try") //a timed pass is just the try block around it
+	public ASTNode parse(CharStream input) {
+		MicroCLexer lexer = new MicroCLexer(input);
+		CommonTokenStream tokens = new CommonTokenStream(lexer);
+
+		try (PassTimer.Pass p = timer.start("lex")) {
+			tokens.fill(); //lex everything up front, so lexing is timed on its own
+		}
+
+		MicroCParser parser = new MicroCParser(tokens);
+
+		parser.setSymbolTable(symbolTable);
 
-			parser.setSymbolTable(symbolTable);
-			
+		try (PassTimer.Pass p = timer.start("parse")) {
 			parser.program(); //parse the program to build the ast
-			
-			//Print out the symbol table. Helpful for debugging
-			symbolTable.printTable();
+		}
 
-			ASTNode ast = parser.getAST();
+		ASTNode ast = parser.getAST();
 
-			// Uncomment this line to print out your AST for debugging purposes
-			PrintVisitor pv = new PrintVisitor();
-			pv.run(ast);
+		try (PassTimer.Pass p = timer.start("typecheck")) {
+			new TypeChecker().run(ast); //annotate every expression with its type
+		}
+
+		if (optimize) {
+			try (PassTimer.Pass p = timer.start("fold")) {
+				new ConstantFolder().run(ast);
+			}
+		}
 
-			CodeGenerator cg = new CodeGenerator();
-			CodeObject co = cg.run(ast);
+		return ast;
+	}
+
+	/**
+	 * Generate code for a parsed program and write the assembly to out
+	 */
+	@SuppressWarnings("try")
+	public void generate(ASTNode ast, AssemblyEmitter out) throws IOException {
+		CodeGenerator cg = new CodeGenerator();
+		cg.setPassTimer(timer);
+		cg.setOptimize(optimize);
+		cg.setNumArgRegs(numArgRegs);
+		CodeObject co;
+		try (PassTimer.Pass p = timer.start("codegen")) {
+			co = cg.run(ast);
+		}
 
+		if (optimize) {
+			try (PassTimer.Pass p = timer.start("peephole")) {
+				peephole.run(co);
+			}
+		}
+
+		try (PassTimer.Pass p = timer.start("emit")) {
 			// Print out ".section .text"
-			System.out.println(".section .text");
+			out.emitLine(".section .text");
 
-			// Print out the code. Runme script will redirect as necessary
-			System.out.println(co);
+			// Print out the code
+			out.emit(co);
+			out.emitLine("");
 
 			//Print out strings
-			printStrings();
+			emitStrings(out);
+
+			out.flush();
+		}
+	}
+
+	@SuppressWarnings("try")
+	public static void main(String args[]) {
+
+		List<String> inputFiles = new ArrayList<String>();
+		String outputFile = null; //null means standard out
+		String outputDir = null;
+		String serverAddress = null;
+		int numThreads = 0;
+		String timePasses = null; //"table" or "json" to print pass timings
+		boolean optimize = true;
+		List<String> peepholeRules = null; //null means all of them
+		boolean peepholeStats = false;
+		int numArgRegs = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && i + 1 < args.length) {
+				outputFile = args[++i];
+			} else if (args[i].equals("-d") && i + 1 < args.length) {
+				outputDir = args[++i];
+			} else if (args[i].equals("-j") && i + 1 < args.length) {
+				numThreads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-O0")) {
+				optimize = false;
+			} else if (args[i].equals("-peephole-rules") && i + 1 < args.length) {
+				String names = args[++i];
+				peepholeRules = names.isEmpty() ? new ArrayList<String>() : Arrays.asList(names.split(","));
+			} else if (args[i].equals("-reg-args") && i + 1 < args.length) {
+				numArgRegs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-peephole-stats")) {
+				peepholeStats = true;
+			} else if (args[i].equals("-time-passes")) {
+				timePasses = "table";
+			} else if (args[i].equals("-time-passes=json")) {
+				timePasses = "json";
+			} else if (args[i].equals("-server") && i + 1 < args.length) {
+				serverAddress = args[++i];
+			} else {
+				inputFiles.add(args[i]);
+			}
+		}
+
+		if (serverAddress != null) {
+			try (CompileServer server = new CompileServer(CompileServer.parseAddress(serverAddress))) {
+				server.serve();
+			} catch (IOException e) {
+				System.out.println("Could not start server on " + serverAddress);
+				e.printStackTrace();
+				System.exit(1);
+			}
+			return;
+		}
+
+		if (numArgRegs < 0 || numArgRegs > CodeGenerator.maxArgRegs) {
+			System.out.println("-reg-args takes 0 to " + CodeGenerator.maxArgRegs + " (a0-a7 and fa0-fa7)");
+			System.exit(1);
+		}
+
+		if (inputFiles.isEmpty() || (inputFiles.size() > 1 && outputFile != null)) {
+			System.out.println("Usage: Compiler [-o output] [-O0] [-time-passes[=json]] [-reg-args n] [-peephole-rules r1,r2,...] [-peephole-stats] input");
+			System.out.println("       Compiler [-j threads] [-d output-dir] input...");
+			System.out.println("       Compiler -server port|socket-path");
+			System.exit(1);
+		}
+
+		if (inputFiles.size() > 1 || outputDir != null) {
+			//batch mode: compile everything in parallel, one output per input
+			BatchCompiler batch = new BatchCompiler(numThreads, outputDir);
+			PassTimer timer = new PassTimer(timePasses != null);
+			batch.setPassTimer(timer);
+			batch.setOptimize(optimize);
+			batch.setNumArgRegs(numArgRegs);
+			if (peepholeRules != null) {
+				batch.setPeepholeRules(peepholeRules);
+			}
+			List<String> errors = batch.compile(inputFiles);
+			for (String error : errors) {
+				System.out.println(error);
+			}
+			if ("json".equals(timePasses)) {
+				timer.printJSON(System.err);
+			} else if (timePasses != null) {
+				timer.printTable(System.err);
+			}
+			if (peepholeStats) {
+				batch.getPeepholeOptimizer().printCounts(System.err);
+			}
+			System.exit(errors.isEmpty() ? 0 : 1);
+		}
+
+		String inputFile = inputFiles.get(0);
+
+		try {
+			Compiler compiler = new Compiler();
+			PassTimer timer = new PassTimer(timePasses != null);
+			compiler.setPassTimer(timer);
+			compiler.setOptimize(optimize);
+			compiler.setNumArgRegs(numArgRegs);
+			if (peepholeRules != null) {
+				compiler.setPeepholeOptimizer(new PeepholeOptimizer(PeepholeOptimizer.rules(peepholeRules)));
+			}
+
+			ASTNode ast = compiler.parse(CharStreams.fromFileName(inputFile));
+
+			//Print out the symbol table. Helpful for debugging
+			try (PassTimer.Pass p = timer.start("symbol table")) {
+				compiler.getSymbolTable().printTable();
+			}
+
+			// Uncomment this line to print out your AST for debugging purposes
+			try (PassTimer.Pass p = timer.start("ast dump")) {
+				PrintVisitor pv = new PrintVisitor();
+				pv.run(ast);
+			}
+
+			// Stream the code to the output file (or standard out) without
+			// building the whole program as a String first
+			AssemblyEmitter out = (outputFile == null) ? new AssemblyEmitter(System.out) : AssemblyEmitter.toFile(outputFile);
+
+			compiler.generate(ast, out);
+
+			out.close();
+
+			// The report goes to stderr, since the code may be going to stdout
+			if ("json".equals(timePasses)) {
+				timer.printJSON(System.err);
+			} else if (timePasses != null) {
+				timer.printTable(System.err);
+			}
+			if (peepholeStats) {
+				compiler.getPeepholeOptimizer().printCounts(System.err);
+			}
 
 		} catch (IOException e) {
 			System.out.println("File not found");
 			e.printStackTrace();
 			System.exit(1);
-		}		
+		}
 	}
 
-	private static void printStrings() {
-		System.out.println();
-		System.out.println(".section .strings");
+	private void emitStrings(AssemblyEmitter out) throws IOException {
+		out.emitLine("");
+		out.emitLine(".section .strings");
 
 		Scope g = symbolTable.getGlobalScope();
 
@@ -71,9 +305,9 @@ public class Compiler {
 		for (Scope.SymbolTableEntry ste : stes) {
 			if (ste.getType().type == Scope.InnerType.STRING) {
 				Scope.StringSymbolTableEntry sste = (Scope.StringSymbolTableEntry) ste;
-				System.out.println(String.format("0x%x", sste.getAddress()) + " " + sste.getValue());
+				out.emitLine(String.format("0x%x", sste.getAddress()) + " " + sste.getValue());
 			}
 		}
 	}
-	
-}
\ No newline at end of file
+
+}
@@ -1,16 +1,22 @@
 package compiler;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class LocalScope extends Scope {
 
 	static final private int startingLocalsOffset = -4; // start local var offset with room for old frame pointer
 	static final private int startingArgsOffset = 12; // start argument offset with room for old fp, old return address and
 														// return value
+	static final private int startingRegArgsOffset = 8; // same, when the return value comes back in a register
 
 	private int localsOffset;
 	private int argsOffset;
 
 	private int numLocals;
 	private int numArgs;
+	private List<SymbolTableEntry> regArgs; //arguments that come in registers, in order
+	private List<SymbolTableEntry> args; //all the arguments, in the order of the parameters
 
 	public LocalScope() {
 		this(null);
@@ -23,6 +29,17 @@ public class LocalScope extends Scope {
 		name = "FUNCTION NAME NOT SET";
 		localsOffset = startingLocalsOffset;
 		argsOffset = startingArgsOffset;
+		regArgs = new ArrayList<SymbolTableEntry>();
+		args = new ArrayList<SymbolTableEntry>();
+	}
+
+	/**
+	 * Use the register calling convention: the return value goes back in a
+	 * register, so there is no slot for it above the arguments. Call this before
+	 * adding the arguments.
+	 */
+	public void passInRegisters() {
+		argsOffset = startingRegArgsOffset;
 	}
 
 	public ErrorType addArgument(Scope.Type type, String name) {
@@ -31,6 +48,19 @@ public class LocalScope extends Scope {
 		return retVal;
 	}
 
+	/**
+	 * Add an argument that the caller passes in a register. It gets a slot among
+	 * the locals, which the function stores it to on entry.
+	 */
+	public ErrorType addRegisterArgument(Scope.Type type, String name) {
+		ErrorType retVal = checkSymbol(name);
+		SymbolTableEntry ste = genSymbol(type, name);
+		table.put(name, ste);
+		regArgs.add(ste);
+		numArgs++;
+		return retVal;
+	}
+
 	protected SymbolTableEntry genArgument(Scope.Type type, String name) {
 		int addr = argsOffset;
 		SymbolTableEntry ste = new SymbolTableEntry(type, name, addr, true);
@@ -63,4 +93,27 @@ public class LocalScope extends Scope {
 		return numLocals;
 	}
 
+	/**
+	 * Record the order of the parameters, once they have all been added
+	 */
+	void orderArguments(List<String> names) {
+		for (String name : names) {
+			args.add(table.get(name));
+		}
+	}
+
+	/**
+	 * @return all the arguments, in the order of the parameters
+	 */
+	public List<SymbolTableEntry> getArguments() {
+		return args;
+	}
+
+	/**
+	 * @return the arguments that come in registers, in the order of the parameters
+	 */
+	public List<SymbolTableEntry> getRegisterArguments() {
+		return regArgs;
+	}
+
 }
\ No newline at end of file
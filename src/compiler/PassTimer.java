@@ -0,0 +1,188 @@
+package compiler;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Measures the passes of a compilation (-time-passes).
+ *
+ * Every pass is wrapped in a {@link Pass}, which records the wall time, the CPU
+ * time and the bytes allocated by the thread running it. Code generation also
+ * records a pass per function. Note that the CPU time and allocations of a pass
+ * only count the thread that ran it: the per-function passes run on fork-join
+ * workers, so the "codegen" pass itself does not include them.
+ *
+ * Each pass is also committed as a JFR event, whether or not -time-passes is on,
+ * so a flight recording shows the passes next to GC activity. The events cost
+ * next to nothing when no recording is running.
+ */
+public class PassTimer {
+
+	@Name("microc.Pass")
+	@Label("Compiler Pass")
+	@Category("MicroC")
+	static class PassEvent extends Event {
+		@Label("Pass")
+		String pass;
+
+		@Label("Function")
+		String function;
+
+		@Label("CPU Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long cpuTime;
+
+		@Label("Allocated")
+		@DataAmount(DataAmount.BYTES)
+		long allocated;
+	}
+
+	static final private ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private final boolean enabled;
+	private final List<Pass> passes;
+	private int numStarted;
+
+	/**
+	 * @param enabled whether to keep the measurements for a report. JFR events
+	 *        are committed either way.
+	 */
+	public PassTimer(boolean enabled) {
+		this.enabled = enabled;
+		this.passes = new ArrayList<Pass>();
+		this.numStarted = 0;
+	}
+
+	/**
+	 * One run of a pass. Close it when the pass is done.
+	 */
+	public class Pass implements AutoCloseable {
+		final String name;
+		final String function; //null for whole-program passes
+		final int seq; //order in which the passes started
+		final PassEvent event;
+
+		long wallTime;
+		long cpuTime;
+		long allocated;
+
+		Pass(String name, String function, int seq) {
+			this.name = name;
+			this.function = function;
+			this.seq = seq;
+			this.event = new PassEvent();
+			event.begin();
+			this.wallTime = System.nanoTime();
+			this.cpuTime = cpuTime();
+			this.allocated = allocatedBytes();
+		}
+
+		@Override
+		public void close() {
+			wallTime = System.nanoTime() - wallTime;
+			cpuTime = cpuTime() - cpuTime;
+			allocated = allocatedBytes() - allocated;
+
+			event.pass = name;
+			event.function = function;
+			event.cpuTime = cpuTime;
+			event.allocated = allocated;
+			event.commit();
+
+			if (enabled) {
+				synchronized (PassTimer.this) {
+					passes.add(this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start a whole-program pass
+	 */
+	public Pass start(String name) {
+		return start(name, null);
+	}
+
+	/**
+	 * Start a pass over one function
+	 */
+	public synchronized Pass start(String name, String function) {
+		return new Pass(name, function, numStarted++);
+	}
+
+	private static long cpuTime() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+	private static long allocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+			if (t.isThreadAllocatedMemorySupported()) {
+				return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Passes that have finished, whole-program passes first, each group in the
+	 * order the passes started
+	 */
+	private synchronized List<Pass> finished() {
+		List<Pass> sorted = new ArrayList<Pass>(passes);
+		Collections.sort(sorted, new Comparator<Pass>() {
+			public int compare(Pass a, Pass b) {
+				if ((a.function == null) != (b.function == null)) {
+					return (a.function == null) ? -1 : 1;
+				}
+				return Integer.compare(a.seq, b.seq);
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Print the measurements as a table
+	 */
+	public void printTable(PrintStream out) {
+		out.println(String.format("%-32s %12s %12s %14s", "pass", "wall (ms)", "cpu (ms)", "alloc (KB)"));
+		for (Pass p : finished()) {
+			String name = (p.function == null) ? p.name : "  " + p.name + " " + p.function;
+			out.println(String.format("%-32s %12.3f %12.3f %14d", name,
+					p.wallTime / 1e6, p.cpuTime / 1e6, p.allocated / 1024));
+		}
+	}
+
+	/**
+	 * Print the measurements as JSON
+	 */
+	public void printJSON(PrintStream out) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"passes\": [");
+		boolean first = true;
+		for (Pass p : finished()) {
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("  {\"pass\": \"").append(p.name).append("\", ");
+			sb.append("\"function\": ").append(p.function == null ? "null" : "\"" + p.function + "\"").append(", ");
+			sb.append("\"wallNanos\": ").append(p.wallTime).append(", ");
+			sb.append("\"cpuNanos\": ").append(p.cpuTime).append(", ");
+			sb.append("\"allocatedBytes\": ").append(p.allocated).append("}");
+		}
+		sb.append("\n]}");
+		out.println(sb.toString());
+	}
+}
@@ -16,27 +16,61 @@ public abstract class Scope{
 		VOID
 	}
 
+	/**
+	 * A type. Types are interned: there is exactly one Type object for each type
+	 * (each base type, and each chain of pointers to it), so types can be compared
+	 * with <code>==</code> or by {@link #id}. Use the constants and
+	 * {@link #pointerToType(Type)} to get at them.
+	 */
 	static public class Type {
 
 		public final InnerType type;
 
-		public Type(InnerType type) {
-			assert(type != InnerType.PTR);
-			this.type = type;
-			this.wrappedType = null;
-		}
+		public final int id; //small integer that is unique to this type
+
+		final Type wrappedType;
+
+		private Type pointerTo; //the type "PTR to this", made on first use
+
+		static private int numTypes = 0;
 
 		private Type(InnerType type, Type wrappedType) {
+			synchronized (Type.class) {
+				this.id = numTypes++;
+			}
 			this.type = type;
 			this.wrappedType = wrappedType;
 		}
 
+		static final public Type STRING = new Type(InnerType.STRING, null);
+		static final public Type INT = new Type(InnerType.INT, null);
+		static final public Type FLOAT = new Type(InnerType.FLOAT, null);
+		static final public Type INFER = new Type(InnerType.INFER, null);
+		static final public Type VOID = new Type(InnerType.VOID, null);
+
+		/**
+		 * The type for a base (non-pointer) type
+		 */
+		public static Type of(InnerType type) {
+			switch (type) {
+				case STRING: return STRING;
+				case INT: return INT;
+				case FLOAT: return FLOAT;
+				case INFER: return INFER;
+				case VOID: return VOID;
+				default: throw new Error("Pointer types need a wrapped type");
+			}
+		}
+
 		public static Type pointerToType(Type wrappedType) {
-			return new Type(InnerType.PTR, wrappedType);
+			synchronized (wrappedType) {
+				if (wrappedType.pointerTo == null) {
+					wrappedType.pointerTo = new Type(InnerType.PTR, wrappedType);
+				}
+				return wrappedType.pointerTo;
+			}
 		}
 
-		final Type wrappedType;
-		
 		public Type getWrappedType() {
 			return wrappedType;
 		}
@@ -49,19 +83,6 @@ public abstract class Scope{
 				return "PTR to " + wrappedType.toString();
 			}
 		}
-
-		@Override
-		public boolean equals(Object other) {
-			if (other instanceof Type) {
-				if (type != InnerType.PTR) {
-					return this.type == ((Type) other).type;
-				} else {
-					return this.wrappedType.equals(((Type) other).getWrappedType());
-				}
-			} else {
-				return false;
-			}
-		}
 	}
 
 	public enum ErrorType {
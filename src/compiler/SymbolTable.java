@@ -4,6 +4,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
 
+import assembly.CodeGenerator;
 import compiler.Scope.FunctionSymbolTableEntry;
 
 public class SymbolTable {
@@ -11,6 +12,7 @@ public class SymbolTable {
 	private Scope globalScope;
 	private Stack<Scope> scopeStack;
 	private LinkedList<String> errors;
+	private int numArgRegs; //int and float arguments passed in registers; 0 passes everything on the stack
 
 	public SymbolTable() {
 		this(0x10000000, 0x20000000);
@@ -23,6 +25,7 @@ public class SymbolTable {
 		scopeStack.push(getGlobalScope());
 
 		errors = new LinkedList<String>();
+		numArgRegs = 0;
 	}
 	
 	public Scope currentScope() {
@@ -44,12 +47,51 @@ public class SymbolTable {
 	    processError(name, e);
 	}
 
-	public void addArgument(Scope.Type type, String name) {
+	/**
+	 * Pass the first <code>numArgRegs</code> int (and pointer) arguments and the
+	 * first <code>numArgRegs</code> float arguments in registers, and return
+	 * values in a register. Has to be set before parsing.
+	 *
+	 * @throws IllegalArgumentException if numArgRegs is not between 0 and
+	 *         {@link CodeGenerator#maxArgRegs}
+	 */
+	public void setNumArgRegs(int numArgRegs) {
+		if (numArgRegs < 0 || numArgRegs > CodeGenerator.maxArgRegs) {
+			throw new IllegalArgumentException("Number of argument registers must be 0 to " + CodeGenerator.maxArgRegs + ": " + numArgRegs);
+		}
+		this.numArgRegs = numArgRegs;
+	}
+
+	public int getNumArgRegs() {
+		return numArgRegs;
+	}
+
+	/**
+	 * Add the parameters of the function whose scope we are in
+	 */
+	public void addArguments(List<Scope.Type> types, List<String> names) {
 		assert(currentScope() instanceof LocalScope);
 
 		LocalScope ls = (LocalScope) currentScope();
-		Scope.ErrorType e = ls.addArgument(type, name);
-		processError(name, e);
+		boolean[] inReg = new boolean[types.size()];
+		if (numArgRegs > 0) {
+			ls.passInRegisters();
+			int numInts = 0;
+			int numFloats = 0;
+			for (int i = 0; i < types.size(); i++) {
+				int n = (types.get(i).type == Scope.InnerType.FLOAT) ? numFloats++ : numInts++;
+				inReg[i] = n < numArgRegs;
+			}
+		}
+
+		/* Add stack parameters in reverse order so everything matches correctly */
+		for (int i = types.size() - 1; i >= 0; --i) {
+			if (!inReg[i]) processError(names.get(i), ls.addArgument(types.get(i), names.get(i)));
+		}
+		for (int i = 0; i < types.size(); i++) {
+			if (inReg[i]) processError(names.get(i), ls.addRegisterArgument(types.get(i), names.get(i)));
+		}
+		ls.orderArguments(names);
 	}
 
 	public void addFunction(Scope.Type returnType, String name, List<Scope.Type> argTypes) {
@@ -91,8 +133,7 @@ public class SymbolTable {
 			case ERROR :
 				errors.add("DECLARATION ERROR " + name);
 				printErrors();
-				System.exit(1);
-				break;
+				throw new Error("DECLARATION ERROR " + name);
 		}
 	}
 	
@@ -117,10 +158,10 @@ public class SymbolTable {
 	public static void main(String args[]) {
 		SymbolTable st =  new SymbolTable();
 
-		st.addVariable(new Scope.Type(Scope.InnerType.INT), "x");
-		st.addVariable(new Scope.Type(Scope.InnerType.INT), "y");
-		st.addVariable(new Scope.Type(Scope.InnerType.STRING), "z", "Hello");
-		st.addVariable(new Scope.Type(Scope.InnerType.STRING), "w", "World");
+		st.addVariable(Scope.Type.INT, "x");
+		st.addVariable(Scope.Type.INT, "y");
+		st.addVariable(Scope.Type.STRING, "z", "Hello");
+		st.addVariable(Scope.Type.STRING, "w", "World");
 
 		st.printTable();
 	}